@@ -0,0 +1,183 @@
+package com.crossover.trial.weather.bench;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.AtmosphericInformationList;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.model.DataPointUpdate;
+import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.util.WeatherDataGenerator;
+
+/**
+ * Benchmarks of the {@link WeatherService} hot paths over a synthetic catalogue of airports, see
+ * {@link WeatherDataGenerator}, each in a single threaded and a variant on all cores.
+ *
+ * The catalogue, the weather and the sequence of airports every thread visits are derived from fixed seeds, so
+ * two runs, or two commits, measure the same work. Before the measurement every airport has weather and the
+ * neighbour lists are tuned for the benchmark radius, as on a server that has been answering such queries for a
+ * while.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class WeatherServiceBenchmark {
+
+    /** seed of the catalogue and the weather */
+    private static final long SEED = 20160202L;
+
+    /** length of the synthetic weather stream the updates are drawn from */
+    private static final int UPDATES = 1 << 16;
+
+    /** size of the catalogue */
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int airports;
+
+    /** radius of the queries in KM */
+    @Param({ "200" })
+    public double radius;
+
+    private final WeatherService service = WeatherService.INSTANCE;
+
+    private String[] codes;
+
+    private int[] slots;
+
+    private DataPointUpdate[] updates;
+
+    /**
+     * The airports a benchmark thread visits, each thread starts from its own seed
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams params) {
+            random = new SplittableRandom(SEED + params.getThreadIndex());
+        }
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws WeatherException {
+        service.init();
+        service.getAirports().clear();
+        WeatherDataGenerator generator = new WeatherDataGenerator(SEED);
+        List<AirportData> catalogue = generator.airports(airports);
+        service.getAirports().addAll(catalogue);
+        service.addDataPoints(generator.initialUpdates(catalogue, DataPointType.WIND));
+        codes = new String[airports];
+        slots = new int[airports];
+        for (int i = 0; i < airports; i++) {
+            codes[i] = catalogue.get(i).getIata();
+            slots[i] = service.getAirportDataIdx(codes[i]);
+        }
+        Iterator<DataPointUpdate> stream = generator.updates(catalogue, 0);
+        updates = new DataPointUpdate[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            updates[i] = stream.next();
+        }
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < 1000; i++) {
+            service.updateRequestFrequency(slots[random.nextInt(airports)], radius);
+        }
+        service.tuneNeighbourRadius();
+    }
+
+    @Benchmark
+    public AirportData findAirportData(Cursor cursor) {
+        return service.findAirportData(codes[cursor.next(airports)]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public AirportData findAirportDataMultiThreaded(Cursor cursor) {
+        return findAirportData(cursor);
+    }
+
+    @Benchmark
+    public double calculateDistance(Cursor cursor) {
+        return service.calculateDistance(slots[cursor.next(airports)], slots[cursor.next(airports)]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public double calculateDistanceMultiThreaded(Cursor cursor) {
+        return calculateDistance(cursor);
+    }
+
+    @Benchmark
+    public void addDataPoint(Cursor cursor) throws WeatherException {
+        DataPointUpdate update = updates[cursor.next(UPDATES)];
+        service.addDataPoint(update.getIata(), update.getPointType(), update.getDataPoint());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addDataPointMultiThreaded(Cursor cursor) throws WeatherException {
+        addDataPoint(cursor);
+    }
+
+    @Benchmark
+    public void updateRequestFrequency(Cursor cursor) {
+        service.updateRequestFrequency(slots[cursor.next(airports)], radius);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void updateRequestFrequencyMultiThreaded(Cursor cursor) {
+        updateRequestFrequency(cursor);
+    }
+
+    /** the /query/weather work, mostly answered by the radius cache as nothing changes */
+    @Benchmark
+    public AtmosphericInformationList radiusQuery(Cursor cursor) {
+        return service.getAtmosphericInformationInRadius(slots[cursor.next(airports)], radius);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public AtmosphericInformationList radiusQueryMultiThreaded(Cursor cursor) {
+        return radiusQuery(cursor);
+    }
+
+    /** the spatial search behind a radius query that misses the cache */
+    @Benchmark
+    public void radiusScan(Cursor cursor, Blackhole blackhole) {
+        service.forEachAirportInRadius(slots[cursor.next(airports)], radius, blackhole::consume);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void radiusScanMultiThreaded(Cursor cursor, Blackhole blackhole) {
+        radiusScan(cursor, blackhole);
+    }
+}
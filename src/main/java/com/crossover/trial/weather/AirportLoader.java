@@ -1,18 +1,30 @@
 package com.crossover.trial.weather;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
-import com.crossover.trial.weather.model.Airport;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
+import com.crossover.trial.weather.exception.WeatherException;
 import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.util.AirportDatParser;
 
 /**
  * A simple airport loader which reads a file from disk and sends entries to the webservice
@@ -24,6 +36,15 @@ import com.crossover.trial.weather.service.WeatherService;
 public class AirportLoader {
 	
 	private static final String BASE_URI = "http://localhost:9090";
+
+	/** default number of requests in flight in async mode */
+	private static final int DEFAULT_CONCURRENCY = 32;
+
+	/** default number of retries of a failed row in async mode */
+	private static final int DEFAULT_RETRIES = 3;
+
+	/** first retry delay in milliseconds, doubled on every further retry */
+	private static final long RETRY_BACKOFF_MILLIS = 50;
 	
 	WeatherService weatherService = WeatherService.INSTANCE;
 
@@ -31,8 +52,24 @@ public class AirportLoader {
     private WebTarget collect;
 
     public AirportLoader() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param asyncThreads number of client threads completing async requests
+     */
+    public AirportLoader(int asyncThreads) {
+        this(BASE_URI, asyncThreads);
+    }
+
+    /**
+     * @param baseUri where the weather server listens
+     * @param asyncThreads number of client threads completing async requests
+     */
+    public AirportLoader(String baseUri, int asyncThreads) {
         Client client = ClientBuilder.newClient();
-        collect = client.target(BASE_URI).path("collect");
+        client.property(ClientProperties.ASYNC_THREADPOOL_SIZE, asyncThreads);
+        collect = client.target(baseUri).path("collect");
     }
     
     private void delete(String string) {
@@ -43,50 +80,159 @@ public class AirportLoader {
     	
 	}
 
-    public void upload(InputStream airportDataStream) throws IOException{
-        BufferedReader reader = new BufferedReader(new InputStreamReader(airportDataStream));
-        String l = null;
-        String[] strArr = null;
-        Airport airport = null;
-        String path = null;
-        
-        while ((l = reader.readLine()) != null) {
-            //break;
-        	strArr = new String[11];
-        	airport = new Airport();
-        	strArr = l.split(",");
-        	populateAirport(strArr,airport);	
-        	
-        	path = "/airport/" + airport.getIata() + "/" + airport.getLatitude() + "/" + airport.getLongitude();
+    public void upload(InputStream airportDataStream) throws IOException, WeatherException{
+        AirportDatParser.parse(airportDataStream, (iata, icao, latitude, longitude, altitude, timezone) -> {
+        	String path = "/airport/" + iata + "/" + latitude + "/" + longitude;
         	
         	System.out.println(path);
         	collect.path(path).request().post(Entity.entity("", MediaType.APPLICATION_JSON));
-	        
+        });
+    }
+
+    /**
+     * Stream the whole file to the bulk import endpoint, the server registers all airports in one request
+     *
+     * @param airportDataStream airports.dat content
+     * @return the HTTP status of the import
+     */
+    public int uploadBulk(InputStream airportDataStream) {
+        Response response = collect.path("/airports").request()
+                .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED)
+                .post(Entity.entity(airportDataStream, MediaType.TEXT_PLAIN));
+        System.out.println("bulk import: " + response.getStatus() + " " + response.readEntity(String.class));
+        return response.getStatus();
+    }
+
+    /**
+     * Post every airport with up to maxInFlight requests outstanding instead of one after the other. Reading the
+     * file is throttled by the in flight limit, a row that fails with a connection error or a 5xx status is retried
+     * with exponential backoff. Throughput and latency are reported at the end.
+     *
+     * Connections are reused by the JDK keep-alive cache, whose size is the http.maxConnections system property.
+     *
+     * @param airportDataStream airports.dat content
+     * @param maxInFlight maximum number of outstanding requests
+     * @param maxRetries how often a failed row is retried
+     * @return number of rows that could not be loaded
+     */
+    public int uploadAsync(InputStream airportDataStream, int maxInFlight, int maxRetries) throws IOException, WeatherException, InterruptedException {
+        WebTarget airportTarget = collect.path("/airport/{iata}/{lat}/{long}");
+        AsyncUpload upload = new AsyncUpload(maxInFlight, maxRetries);
+        try {
+            AirportDatParser.parse(airportDataStream, (iata, icao, latitude, longitude, altitude, timezone) -> {
+                upload.inFlight.acquireUninterruptibly();
+                upload.rows.incrementAndGet();
+                upload.post(airportTarget.resolveTemplate("iata", iata)
+                        .resolveTemplate("lat", latitude)
+                        .resolveTemplate("long", longitude), 0);
+            });
+            // every permit back means every row has completed
+            upload.inFlight.acquire(maxInFlight);
+        } finally {
+            upload.retryTimer.shutdownNow();
         }
+        upload.report(System.out);
+        return upload.failed.get();
     }
 
-    private void populateAirport(String[] strArr, Airport airport) {
-		// TODO Auto-generated method stub
-    	if(strArr==null || strArr.length==0)
-    		return;
-    	
-    	airport.setAirportName(strArr[1]);
-    	airport.setCity(strArr[2]);
-    	airport.setCountry(strArr[3]);
-    	airport.setIata(strArr[4]);
-    	airport.setIcao(strArr[5]);
-    	airport.setLatitude(strArr[6]);
-    	airport.setLongitude(strArr[7]);
-    	airport.setAltitude(Double.valueOf(strArr[8]));
-    	airport.setTimezone(Float.valueOf(strArr[9]));
-    	airport.setDst(strArr[10]);
-    	
-		return;
-	}
+    /** the state of one async upload */
+    private static class AsyncUpload {
+
+        final Semaphore inFlight;
+
+        final int maxRetries;
+
+        final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor();
+
+        final long start = System.nanoTime();
+
+        final AtomicInteger rows = new AtomicInteger();
+
+        final AtomicInteger succeeded = new AtomicInteger();
 
-	public static void main(String args[]) throws IOException{
+        final AtomicInteger failed = new AtomicInteger();
+
+        final AtomicInteger retries = new AtomicInteger();
+
+        /** latency of every request in nanoseconds */
+        private long[] latencies = new long[1024];
+
+        private int latencyCount;
+
+        AsyncUpload(int maxInFlight, int maxRetries) {
+            this.inFlight = new Semaphore(maxInFlight);
+            this.maxRetries = maxRetries;
+        }
+
+        void post(WebTarget target, int attempt) {
+            final long sent = System.nanoTime();
+            target.request().async().post(Entity.entity("", MediaType.APPLICATION_JSON), new InvocationCallback<Response>() {
+                @Override
+                public void completed(Response response) {
+                    int status = response.getStatus();
+                    // hand the connection back to the keep-alive cache
+                    response.close();
+                    recordLatency(System.nanoTime() - sent);
+                    if (status >= 500) {
+                        retry(target, attempt);
+                    } else {
+                        done(status < 300);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable throwable) {
+                    recordLatency(System.nanoTime() - sent);
+                    retry(target, attempt);
+                }
+            });
+        }
+
+        void retry(WebTarget target, int attempt) {
+            if (attempt >= maxRetries) {
+                done(false);
+                return;
+            }
+            retries.incrementAndGet();
+            try {
+                retryTimer.schedule(() -> post(target, attempt + 1), RETRY_BACKOFF_MILLIS << attempt, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                done(false);
+            }
+        }
+
+        void done(boolean success) {
+            (success ? succeeded : failed).incrementAndGet();
+            inFlight.release();
+        }
+
+        synchronized void recordLatency(long nanos) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            }
+            latencies[latencyCount++] = nanos;
+        }
+
+        synchronized void report(PrintStream out) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            out.println(String.format("loaded %d of %d airports in %.2f s (%.0f rows/s), %d failed, %d retries",
+                    succeeded.get(), rows.get(), seconds, rows.get() / seconds, failed.get(), retries.get()));
+            if (sorted.length > 0) {
+                out.println(String.format("latency ms p50=%.2f p99=%.2f max=%.2f",
+                        percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6));
+            }
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+        }
+    }
+
+	public static void main(String args[]) throws IOException, WeatherException, InterruptedException{
                 
-        //args is filename = airports.dat
+        //args is filename = airports.dat [--bulk | --async[=concurrency[,retries]]]
         InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(args[0]);
         
         if(inputStream==null){
@@ -94,9 +240,27 @@ public class AirportLoader {
             System.exit(1);
         }
 
+        if (args.length > 1 && args[1].startsWith("--async")) {
+            // --async[=concurrency[,retries]]
+            String[] opts = args[1].contains("=") ? args[1].substring(args[1].indexOf('=') + 1).split(",") : new String[0];
+            int concurrency = opts.length > 0 ? Integer.parseInt(opts[0]) : DEFAULT_CONCURRENCY;
+            int retries = opts.length > 1 ? Integer.parseInt(opts[1]) : DEFAULT_RETRIES;
+            // keep one pooled connection per request in flight, must be set before the first connection
+            if (System.getProperty("http.maxConnections") == null) {
+                System.setProperty("http.maxConnections", String.valueOf(concurrency));
+            }
+            AirportLoader al = new AirportLoader(concurrency);
+            int failed = al.uploadAsync(inputStream, concurrency, retries);
+            System.exit(failed == 0 ? 0 : 1);
+        }
+
         AirportLoader al = new AirportLoader();
         
-        al.upload(inputStream);
+        if (args.length > 1 && "--bulk".equals(args[1])) {
+            al.uploadBulk(inputStream);
+        } else {
+            al.upload(inputStream);
+        }
         al.delete("BOS");
         System.exit(0);
     }
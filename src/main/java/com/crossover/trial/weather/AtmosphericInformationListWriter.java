@@ -0,0 +1,56 @@
+package com.crossover.trial.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.crossover.trial.weather.model.AtmosphericInformationList;
+import com.crossover.trial.weather.util.JsonFragments;
+
+/**
+ * Writes weather query results as a JSON array of the cached per airport fragments, without running Jackson on
+ * every request. The output is the same as Jackson's serialization of the list.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class AtmosphericInformationListWriter implements MessageBodyWriter<AtmosphericInformationList> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return AtmosphericInformationList.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(AtmosphericInformationList list, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        long size = 2 + Math.max(0, list.size() - 1);
+        for (int i = 0; i < list.size(); i++) {
+            byte[] json = list.getJson(i);
+            if (json == null) {
+                return -1;
+            }
+            size += json.length;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(AtmosphericInformationList list, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        entityStream.write('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                entityStream.write(',');
+            }
+            byte[] json = list.getJson(i);
+            entityStream.write(json != null ? json : JsonFragments.toJson(list.get(i)));
+        }
+        entityStream.write(']');
+    }
+}
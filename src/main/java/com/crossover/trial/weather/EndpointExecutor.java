@@ -0,0 +1,184 @@
+package com.crossover.trial.weather;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+/**
+ * Runs the handlers of one REST API on its own bounded pool, off the Grizzly worker threads. The collector and the
+ * query API each have one, so a burst of updates queues behind the collector threads while queries keep their
+ * own. A request arriving at a full queue is answered with 503 Service Unavailable right away.
+ *
+ * On JDK 21 and later the handlers can instead run on virtual threads, one per request, so handlers blocked on
+ * I/O such as a synchronous journal commit no longer cap the throughput at the number of threads. The limit on
+ * requests in progress then takes the place of threads plus queue. The JDK API is looked up by reflection, the
+ * code still builds and runs on Java 8.
+ */
+public final class EndpointExecutor {
+
+    public final static Logger LOGGER = Logger.getLogger(EndpointExecutor.class.getName());
+
+    /** runs the /collect handlers */
+    public static final EndpointExecutor COLLECT = new EndpointExecutor("collect", Runtime.getRuntime().availableProcessors(), 10000);
+
+    /** runs the /query handlers */
+    public static final EndpointExecutor QUERY = new EndpointExecutor("query", 2 * Runtime.getRuntime().availableProcessors(), 10000);
+
+    private final String name;
+
+    private volatile ExecutorService pool;
+
+    /** requests in progress or waiting, limited only for virtual threads, null for a platform pool */
+    private volatile Semaphore permits;
+
+    /** platform threads, or the limit of requests in progress on virtual threads */
+    private volatile int threads;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private EndpointExecutor(String name, int threads, int queue) {
+        this.name = name;
+        this.pool = newPool(threads, queue);
+        this.threads = threads;
+    }
+
+    /**
+     * Replace the pool with a platform thread pool, handlers already queued on the old one still run
+     *
+     * @param threads number of handler threads
+     * @param queue number of requests that may wait for a thread, 0 to answer 503 whenever no thread is idle
+     */
+    public synchronized void configure(int threads, int queue) {
+        replace(newPool(threads, queue), null, threads);
+    }
+
+    /**
+     * Replace the pool with a new virtual thread per request, handlers already queued on the old one still run
+     *
+     * @param maxRequests requests in progress before 503 is returned
+     * @throws UnsupportedOperationException if the JDK has no virtual threads
+     */
+    public synchronized void configureVirtual(int maxRequests) {
+        replace(newVirtualThreadPerTaskExecutor(), new Semaphore(maxRequests), maxRequests);
+    }
+
+    /** true if the handlers run on virtual threads */
+    public boolean isVirtual() {
+        return permits != null;
+    }
+
+    private void replace(ExecutorService replacement, Semaphore limit, int size) {
+        ExecutorService old = pool;
+        permits = limit;
+        threads = size;
+        pool = replacement;
+        old.shutdown();
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor() of JDK 21 */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads need JDK 21 or later, running on " + System.getProperty("java.version"), e);
+        }
+    }
+
+    private ThreadPoolExecutor newPool(int threads, int queue) {
+        AtomicInteger count = new AtomicInteger();
+        BlockingQueue<Runnable> waiting = queue == 0 ? new SynchronousQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(queue);
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, waiting, r -> {
+            Thread t = new Thread(r, "weather-" + name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Run a handler on the pool and resume the suspended request with its response. A handler that fails, even
+     * with an {@link Error}, is answered with 500 so the client does not wait for the container timeout, the
+     * error is rethrown afterwards.
+     *
+     * @param async the suspended request
+     * @param handler produces the response
+     */
+    public void submit(AsyncResponse async, Supplier<Response> handler) {
+        try {
+            execute(() -> {
+                try {
+                    async.resume(handler.get());
+                } catch (Throwable e) {
+                    LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                    async.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).build());
+                    if (e instanceof Error) {
+                        throw (Error) e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            async.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+        }
+    }
+
+    /**
+     * Run a task on the pool
+     *
+     * @throws RejectedExecutionException if the queue or the limit of requests in progress is full
+     */
+    public void execute(Runnable task) {
+        Semaphore limit = permits;
+        if (limit != null && !limit.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException(name + " requests at limit");
+        }
+        try {
+            pool.execute(limit == null ? task : () -> {
+                try {
+                    task.run();
+                } finally {
+                    limit.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (limit != null) {
+                limit.release();
+            }
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /** number of platform handler threads, or the limit of requests in progress on virtual threads */
+    public int getThreads() {
+        return threads;
+    }
+
+    /** requests waiting for a platform thread, or in progress on virtual threads */
+    public int getQueued() {
+        ExecutorService current = pool;
+        Semaphore limit = permits;
+        if (limit != null) {
+            return threads - limit.availablePermits();
+        }
+        return current instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) current).getQueue().size() : 0;
+    }
+
+    /** requests answered with 503 because the queue was full */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
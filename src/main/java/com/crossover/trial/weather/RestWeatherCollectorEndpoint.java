@@ -1,30 +1,45 @@
 package com.crossover.trial.weather;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.exception.WeatherJournalException;
 import com.crossover.trial.weather.model.AirportData;
 import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointUpdate;
 import com.crossover.trial.weather.service.WeatherService;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 /**
  * A REST implementation of the WeatherCollector API. Accessible only to airport weather collection
  * sites via secure VPN.
  *
+ * Requests are suspended and handled on the {@link EndpointExecutor#COLLECT} pool, the resource methods only
+ * hand them over to the WeatherCollector implementation methods.
+ *
  * @author code test administrator
  */
 
@@ -39,27 +54,81 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
     /** shared gson json to object factory */
     public final static Gson gson = new Gson();
     
-    /** all known airports */
-    private  List<AirportData> airportData = weatherService.getAirportData();
-    
 
     @GET
     @Path("/ping")
+    public void ping(@Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, this::ping);
+    }
+
+    @POST
+    @Path("/weather/{iata}/{pointType}")
+    public void updateWeather(@PathParam("iata") String iataCode,
+                              @PathParam("pointType") String pointType,
+                              String datapointJson,
+                              @Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, () -> updateWeather(iataCode, pointType, datapointJson));
+    }
+
+    @POST
+    @Path("/weather")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void updateWeather(String datapointsJson, @Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, () -> updateWeather(datapointsJson));
+    }
+
+    @GET
+    @Path("/airports")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getAirports(@Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, this::getAirports);
+    }
+
+    @GET
+    @Path("/airport/{iata}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getAirport(@PathParam("iata") String iata, @Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, () -> getAirport(iata));
+    }
+
+    @POST
+    @Path("/airport/{iata}/{lat}/{long}")
+    public void addAirport(@PathParam("iata") String iata,
+                           @PathParam("lat") String latString,
+                           @PathParam("long") String longString,
+                           @Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, () -> addAirport(iata, latString, longString));
+    }
+
+    @POST
+    @Path("/airports")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void addAirports(InputStream airportsDat, @Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, () -> addAirports(airportsDat));
+    }
+
+    @DELETE
+    @Path("/airport/{iata}")
+    public void deleteAirport(@PathParam("iata") String iata, @Suspended AsyncResponse async) {
+        EndpointExecutor.COLLECT.submit(async, () -> deleteAirport(iata));
+    }
+
     @Override
     public Response ping() {
     	LOGGER.log(Level.INFO, "call to collector ping method");
         return Response.status(Response.Status.OK).entity("ready").build();
     }
 
-    @POST
-    @Path("/weather/{iata}/{pointType}")
     @Override
-    public Response updateWeather(@PathParam("iata") String iataCode,
-                                  @PathParam("pointType") String pointType,
-                                  String datapointJson) {
+    public Response updateWeather(String iataCode, String pointType, String datapointJson) {
         try {
         	weatherService.addDataPoint(iataCode, pointType, gson.fromJson(datapointJson, DataPoint.class));
             return Response.status(Response.Status.OK).build();
+        } catch (WeatherJournalException e) {
+            // applied but not durable, a server failure rather than a bad update
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
         } catch (WeatherException e) {
         	LOGGER.log(Level.SEVERE, e.getMessage(), e);
             return Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE).build();
@@ -71,16 +140,47 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
         
     }
 
-    @GET
-    @Path("/airports")
-    @Produces(MediaType.APPLICATION_JSON)
     @Override
-    public Response getAirports() {
-        Set<String> retval = null;
-        if(airportData!=null && airportData.size()>0){
-        	retval = new HashSet<String>();
+    public Response updateWeather(String datapointsJson) {
+        List<DataPointUpdate> updates;
+        try {
+            DataPointUpdate[] parsed = gson.fromJson(datapointsJson, DataPointUpdate[].class);
+            updates = parsed == null ? Collections.<DataPointUpdate>emptyList() : Arrays.asList(parsed);
+        } catch (JsonParseException e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        try {
+            WeatherException[] errors = weatherService.addDataPoints(updates);
+            List<Map<String, Object>> retval = new ArrayList<Map<String, Object>>(updates.size());
+            for (int i = 0; i < errors.length; i++) {
+                Map<String, Object> status = new LinkedHashMap<String, Object>();
+                status.put("iata", updates.get(i).getIata());
+                status.put("pointType", updates.get(i).getPointType());
+                // same status codes as a single update
+                if (errors[i] == null) {
+                    status.put("status", Response.Status.OK.getStatusCode());
+                } else if (errors[i] instanceof WeatherJournalException) {
+                    status.put("status", Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+                    status.put("message", errors[i].getMessage());
+                } else {
+                    status.put("status", Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode());
+                    status.put("message", errors[i].getMessage());
+                }
+                retval.add(status);
+            }
+            LOGGER.log(Level.INFO, "Batch of " + updates.size() + " data points processed");
+            return Response.status(Response.Status.OK).entity(gson.toJson(retval)).build();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
         }
-        for (AirportData ad : airportData) {
+    }
+
+    @Override
+    public Response getAirports() {
+        Set<String> retval = new HashSet<String>();
+        for (AirportData ad : weatherService.getAirportData()) {
             retval.add(ad.getIata());
         }
         if(retval != null && retval.size()>0){
@@ -94,11 +194,8 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
     }
 
 
-    @GET
-    @Path("/airport/{iata}")
-    @Produces(MediaType.APPLICATION_JSON)
     @Override
-    public Response getAirport(@PathParam("iata") String iata) {
+    public Response getAirport(String iata) {
         AirportData ad = weatherService.findAirportData(iata);
         if(ad!=null ){
         	LOGGER.log(Level.INFO, "Airport data for "+iata+" found");
@@ -111,15 +208,10 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
         
     }
 
-    @POST
-    @Path("/airport/{iata}/{lat}/{long}")
     @Override
-    public Response addAirport(@PathParam("iata") String iata,
-                               @PathParam("lat") String latString,
-                               @PathParam("long") String longString) {
+    public Response addAirport(String iata, String latString, String longString) {
     	try{
     		weatherService.addAirport(iata, Double.valueOf(latString), Double.valueOf(longString));
-    		System.out.println("Added airport: "+iata +" size: "+airportData.size());
     		LOGGER.log(Level.INFO, "Airport data added successfully");
     		return Response.status(Response.Status.CREATED).build();
     	}catch (Exception e) {
@@ -129,10 +221,24 @@ public class RestWeatherCollectorEndpoint implements WeatherCollectorEndpoint {
     }
 
 
-    @DELETE
-    @Path("/airport/{iata}")
     @Override
-    public Response deleteAirport(@PathParam("iata") String iata) {
+    public Response addAirports(InputStream airportsDat) {
+    	try{
+    		int added = weatherService.importAirports(airportsDat);
+    		LOGGER.log(Level.INFO, added + " airports added successfully");
+    		return Response.status(Response.Status.CREATED).entity(gson.toJson(Collections.singletonMap("added", added))).build();
+    	}catch (WeatherException e) {
+        	LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        	return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }catch (Exception e) {
+        	LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        	return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+
+    @Override
+    public Response deleteAirport(String iata) {
     	try {
             boolean deleted = weatherService.deleteAirport(iata);
             return Response.status(deleted ? Response.Status.OK : Response.Status.NOT_FOUND).build();
@@ -1,8 +1,7 @@
 package com.crossover.trial.weather;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -10,13 +9,24 @@ import java.util.logging.Logger;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
-import com.crossover.trial.weather.exception.WeatherException;
 import com.crossover.trial.weather.model.AirportData;
 import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.AtmosphericInformationList;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.service.AirportSlot;
+import com.crossover.trial.weather.service.RadiusCache;
+import com.crossover.trial.weather.service.RequestStats;
+import com.crossover.trial.weather.service.WeatherRollups;
 import com.crossover.trial.weather.service.WeatherService;
 import com.google.gson.Gson;
 
@@ -24,6 +34,9 @@ import com.google.gson.Gson;
  * The Weather App REST endpoint allows clients to query, update and check health stats. Currently, all data is
  * held in memory. The end point deploys to a single container
  *
+ * Requests are suspended and handled on the {@link EndpointExecutor#QUERY} pool, apart from the collector
+ * traffic.
+ *
  * @author code test administrator
  */
 @Path("/query")
@@ -37,129 +50,148 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
 
     /** shared gson json to object factory */
     public static final Gson gson = new Gson();
-    
-    
-    /** all known airports */
-    private List<AirportData> airportData = weatherService.getAirportData();
 
-    /** atmospheric information for each airport, idx corresponds with airportData */
-    private List<AtmosphericInformation> atmosphericInformation = weatherService.getAtmosphericInformation();
+    /** the current request for conditional GETs, null when the endpoint is called outside a container */
+    @Context
+    Request request;
+    
+    @GET
+    @Path("/ping")
+    public void ping(@Suspended AsyncResponse async) {
+        EndpointExecutor.QUERY.submit(async, () -> Response.ok(ping()).build());
+    }
 
-    /**
-     * Internal performance counter to better understand most requested information, this map can be improved but
-     * for now provides the basis for future performance optimizations. Due to the stateless deployment architecture
-     * we don't want to write this to disk, but will pull it off using a REST request and aggregate with other
-     * performance metrics {@link #ping()}
-     */
-    private Map<AirportData, Integer> requestFrequency = weatherService.getRequestFrequency();
+    @GET
+    @Path("/weather/{iata}/{radius}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString, @Suspended AsyncResponse async) {
+        EndpointExecutor.QUERY.submit(async, () -> weather(iata, radiusString));
+    }
 
-    private Map<Double, Integer> radiusFreq = weatherService.getRadiusFreq();
+    @GET
+    @Path("/history/{iata}/{pointType}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void history(@PathParam("iata") String iata, @PathParam("pointType") String pointType,
+                        @QueryParam("from") String fromString, @QueryParam("to") String toString,
+                        @Suspended AsyncResponse async) {
+        EndpointExecutor.QUERY.submit(async, () -> history(iata, pointType, fromString, toString));
+    }
 
-  
-    static {
-        try {
-        	weatherService.init();
-		} catch (WeatherException e) {
-			LOGGER.log(Level.SEVERE, e.getMessage(), e);
-		}
+    @GET
+    @Path("/rollup/{iata}/{pointType}/{resolution}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void rollup(@PathParam("iata") String iata, @PathParam("pointType") String pointType,
+                       @PathParam("resolution") String resolution,
+                       @QueryParam("from") String fromString, @QueryParam("to") String toString,
+                       @Suspended AsyncResponse async) {
+        EndpointExecutor.QUERY.submit(async, () -> rollup(iata, pointType, resolution, fromString, toString));
     }
+
     /**
      * Retrieve service health including total size of valid data points and request frequency information.
+     * iata_freq lists the airports queried since the last reset, an airport missing from it was not queried.
      *
      * @return health stats for the service as a string
      */
-    @GET
-    @Path("/ping")
     @Override
     public String ping() {
         Map<String, Object> retval = new HashMap<String, Object>();
         LOGGER.log(Level.INFO, "call to query ping method");
         
-        int datasize = 0;
-        for (AtmosphericInformation ai : atmosphericInformation) {
-            // we only count recent readings
-            if (ai.getCloudCover() != null
-                || ai.getHumidity() != null
-                || ai.getPressure() != null
-                || ai.getPrecipitation() != null
-                || ai.getTemperature() != null
-                || ai.getWind() != null) {
-                // updated in the last day
-                if (ai.getLastUpdateTime() > System.currentTimeMillis() - 86400000) {
-                    datasize++;
-                }
-            }
-        }
+        // airports with a reading in the last day, maintained by the service on every update
+        int datasize = weatherService.getDataSize();
         retval.put("datasize", datasize);
 
+        RequestStats stats = weatherService.getRequestStats();
+        long total = stats.total();
         Map<String, Double> freq = new HashMap<String, Double>();
-        // fraction of queries
-        for (AirportData data : airportData) {
-            double frac = (double)requestFrequency.getOrDefault(data, 0) / requestFrequency.size();
-            freq.put(data.getIata(), frac);
-        }
+        // fraction of queries, only the queried airports are visited
+        stats.forEachQueried(slot -> {
+            AirportData data = slot.getAirport();
+            if (data != null) {
+                freq.put(data.getIata(), total == 0 ? 0 : (double) slot.getRequestCount() / total);
+            }
+        });
         retval.put("iata_freq", freq);
 
-        int m = radiusFreq.keySet().stream()
-                .max(Double::compare)
-                .orElse(1000.0).intValue() + 1;
+        retval.put("radius_freq", stats.radiusHistogram());
 
-        int[] hist = new int[m];
-        for (Map.Entry<Double, Integer> e : radiusFreq.entrySet()) {
-            int i = e.getKey().intValue() % 10;
-            hist[i] += e.getValue();
-        }
-        retval.put("radius_freq", hist);
+        RadiusCache cache = weatherService.getRadiusCache();
+        Map<String, Number> cacheStats = new LinkedHashMap<String, Number>();
+        long lookups = cache.getHits() + cache.getMisses();
+        cacheStats.put("hits", cache.getHits());
+        cacheStats.put("misses", cache.getMisses());
+        cacheStats.put("hit_rate", lookups == 0 ? 0 : (double) cache.getHits() / lookups);
+        cacheStats.put("evictions", cache.getEvictions());
+        cacheStats.put("invalidations", cache.getInvalidations());
+        cacheStats.put("entries", cache.size());
+        cacheStats.put("bytes", cache.getBytes());
+        retval.put("radius_cache", cacheStats);
+
+        Map<String, Object> executors = new LinkedHashMap<String, Object>();
+        executors.put("collect", executorStats(EndpointExecutor.COLLECT));
+        executors.put("query", executorStats(EndpointExecutor.QUERY));
+        retval.put("executors", executors);
 
         return gson.toJson(retval);
     }
 
+    private static Map<String, Number> executorStats(EndpointExecutor executor) {
+        Map<String, Number> stats = new LinkedHashMap<String, Number>();
+        stats.put("threads", executor.getThreads());
+        stats.put("queued", executor.getQueued());
+        stats.put("rejected", executor.getRejected());
+        return stats;
+    }
+
     /**
      * Given a query in json format {'iata': CODE, 'radius': km} extracts the requested airport information and
      * return a list of matching atmosphere information.
      *
+     * The response carries an ETag derived from the snapshot versions of the result, a request whose
+     * If-None-Match holds it gets an empty 304 Not Modified.
+     *
      * @param iata the iataCode
      * @param radiusString the radius in km
      *
      * @return a list of atmospheric information
      */
-    @GET
-    @Path("/weather/{iata}/{radius}")
-    @Produces(MediaType.APPLICATION_JSON)
     @Override
-    public Response weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString) {
+    public Response weather(String iata, String radiusString) {
     	
-    	//check if airport exists
-    	AirportData airport = weatherService.findAirportData(iata);
-        if (airport == null) {
+    	//check if airport exists, the slot is looked up once as the airport may be deleted concurrently
+    	AirportSlot slot = weatherService.getAirports().find(iata);
+        if (slot == null) {
         	LOGGER.log(Level.INFO, "call to query weather method returned no airport data for "+iata);
             return Response.status(Response.Status.NOT_FOUND).build();
         }
     	
         double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
-        weatherService.updateRequestFrequency(iata, radius);
+        int idx = slot.getId();
+        weatherService.updateRequestFrequency(idx, radius);
 
-        List<AtmosphericInformation> retval = new ArrayList<AtmosphericInformation>();
+        // carries the cached JSON of every snapshot, see AtmosphericInformationListWriter
+        AtmosphericInformationList retval;
         
         if (radius == 0) {
-            int idx = weatherService.getAirportDataIdx(iata);
-            retval.add(weatherService.getAtmosphericInformation().get(idx));
-        } else {
-            AirportData ad = weatherService.findAirportData(iata);
-            for (int i=0;i< airportData.size(); i++){
-                if (weatherService.calculateDistance(ad, airportData.get(i)) <= radius){
-                    AtmosphericInformation ai = atmosphericInformation.get(i);
-                    if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null
-                       || ai.getPressure() != null || ai.getTemperature() != null || ai.getWind() != null){
-                        retval.add(ai);
-                    }
-                }
+            retval = new AtmosphericInformationList();
+            AtmosphericInformation ai = weatherService.getAtmosphericInformation(idx);
+            if (ai != null) {
+                retval.add(idx, ai, weatherService.getAtmosphericInformationJson(idx, ai));
             }
+        } else {
+            retval = weatherService.getAtmosphericInformationInRadius(idx, radius);
         }
         
         if(retval!=null && retval.size()>0){
+            EntityTag tag = new EntityTag(weatherService.getEntityTag(retval));
+            Response.ResponseBuilder notModified = request == null ? null : request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                LOGGER.log(Level.INFO, "call to query weather method returned no changes for "+iata);
+                return notModified.build();
+            }
 	        LOGGER.log(Level.INFO, "call to query weather method returned details for "+iata);
-	        return Response.status(Response.Status.OK).entity(retval).build();
+	        return Response.status(Response.Status.OK).entity(retval).tag(tag).build();
         }
         else{
         	LOGGER.log(Level.INFO, "call to query weather method returned no results");
@@ -167,5 +199,68 @@ public class RestWeatherQueryEndpoint implements WeatherQueryEndpoint {
         }
     }
 
+    /**
+     * The recent data points of one point type of an airport, written by {@link WeatherHistoryWriter}
+     *
+     * @param iata the iataCode
+     * @param pointType the point type
+     * @param fromString earliest update time in milliseconds since the epoch, inclusive, optional
+     * @param toString latest update time, exclusive, optional
+     *
+     * @return the data points, 404 for an unknown airport, 400 for an unknown point type or a bad time
+     */
+    @Override
+    public Response history(String iata, String pointType, String fromString, String toString) {
+        int idx = weatherService.getAirportDataIdx(iata);
+        if (idx < 0) {
+            LOGGER.log(Level.INFO, "call to query history method returned no airport data for "+iata);
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        DataPointType type;
+        long from;
+        long to;
+        try {
+            type = DataPointType.valueOf(pointType.toUpperCase());
+            from = fromString == null || fromString.trim().isEmpty() ? Long.MIN_VALUE : Long.parseLong(fromString.trim());
+            to = toString == null || toString.trim().isEmpty() ? Long.MAX_VALUE : Long.parseLong(toString.trim());
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.INFO, "call to query history method with bad parameters: " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.status(Response.Status.OK).entity(weatherService.getHistory(idx, type, from, to)).build();
+    }
 
+    /**
+     * The minute, hour or day aggregates of one point type of an airport, written by {@link WeatherRollupWriter}
+     *
+     * @param iata the iataCode
+     * @param pointType the point type
+     * @param resolution minute, hour or day
+     * @param fromString earliest bucket start in milliseconds since the epoch, inclusive, optional
+     * @param toString latest bucket start, exclusive, optional
+     *
+     * @return the buckets, 404 for an unknown airport, 400 for an unknown point type or resolution or a bad time
+     */
+    @Override
+    public Response rollup(String iata, String pointType, String resolution, String fromString, String toString) {
+        int idx = weatherService.getAirportDataIdx(iata);
+        if (idx < 0) {
+            LOGGER.log(Level.INFO, "call to query rollup method returned no airport data for "+iata);
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        DataPointType type;
+        WeatherRollups.Resolution width;
+        long from;
+        long to;
+        try {
+            type = DataPointType.valueOf(pointType.toUpperCase());
+            width = WeatherRollups.Resolution.valueOf(resolution.toUpperCase());
+            from = fromString == null || fromString.trim().isEmpty() ? Long.MIN_VALUE : Long.parseLong(fromString.trim());
+            to = toString == null || toString.trim().isEmpty() ? Long.MAX_VALUE : Long.parseLong(toString.trim());
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.INFO, "call to query rollup method with bad parameters: " + e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.status(Response.Status.OK).entity(weatherService.getRollups(idx, type, width, from, to)).build();
+    }
 }
@@ -0,0 +1,98 @@
+package com.crossover.trial.weather;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.service.AirportSlot;
+import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.service.WeatherSubscriptions;
+
+/**
+ * Server-Sent Events stream of weather changes. Each event is
+ * <pre>
+ * event: weather
+ * data: {"iata":"BOS","atmosphericInformation":{...}}
+ * </pre>
+ * A comment line is sent when a stream has been quiet for a while. The stream is written by the
+ * {@link WeatherSubscriptions} senders, no request thread is held while it is open.
+ */
+@Path("/stream")
+public class RestWeatherStreamEndpoint implements WeatherStreamEndpoint {
+
+    public final static Logger LOGGER = Logger.getLogger(RestWeatherStreamEndpoint.class.getName());
+
+    /** media type of Server-Sent Events */
+    public static final String EVENT_STREAM = "text/event-stream";
+
+    /** Singleton pattern for Weather service class
+     */
+    static WeatherService weatherService = WeatherService.INSTANCE;
+
+    @GET
+    @Path("/weather/{iata}/{radius}")
+    @Produces(EVENT_STREAM)
+    @Override
+    public ChunkedOutput<String> weather(@PathParam("iata") String iata, @PathParam("radius") String radiusString) {
+        int idx = weatherService.getAirportDataIdx(iata);
+        if (idx < 0) {
+            LOGGER.log(Level.INFO, "call to stream weather method returned no airport data for " + iata);
+            throw new NotFoundException();
+        }
+        double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
+
+        ChunkedOutput<String> output = new ChunkedOutput<String>(String.class);
+        weatherService.subscribe(idx, radius, new EventSink(output));
+        LOGGER.log(Level.INFO, "call to stream weather method opened a stream for " + iata);
+        return output;
+    }
+
+    /** writes the snapshots of a subscription as events */
+    static class EventSink implements WeatherSubscriptions.Sink {
+
+        private final ChunkedOutput<String> output;
+
+        EventSink(ChunkedOutput<String> output) {
+            this.output = output;
+        }
+
+        @Override
+        public void send(AirportSlot slot, AtmosphericInformation ai) throws IOException {
+            output.write(event(slot.getAirport().getIata(), slot.getJson(ai)));
+        }
+
+        @Override
+        public void keepAlive() throws IOException {
+            output.write(":\n\n");
+        }
+
+        @Override
+        public void closed() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "weather stream already closed", e);
+            }
+        }
+    }
+
+    /**
+     * @param iata the airport
+     * @param json the JSON of its snapshot, a single line
+     * @return the event text
+     */
+    static String event(String iata, byte[] json) {
+        return "event: weather\ndata: {\"iata\":\"" + iata + "\",\"atmosphericInformation\":"
+                + new String(json, StandardCharsets.UTF_8) + "}\n\n";
+    }
+}
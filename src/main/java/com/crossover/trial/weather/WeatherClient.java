@@ -67,22 +67,11 @@ public class WeatherClient {
         }
     }
 
-    public static void main(String[] args) {
-        WeatherClient wc = new WeatherClient();
-        wc.pingCollect();
-        //populate the data
-        wc.populate("wind", 1, 10, 6, 4, 20);
-
-        wc.query("BOS");
-        
-        wc.query("JFK");
-        wc.query("EWR");
-        wc.query("LGA");
-        wc.query("MMU");
-
-        wc.pingQuery();
-        wc.exit();
-        System.out.print("complete");
-        System.exit(0);
+    /**
+     * Load tests the server, see {@link WeatherLoadGenerator} for the arguments. The methods above show the use
+     * of the API.
+     */
+    public static void main(String[] args) throws Exception {
+        WeatherLoadGenerator.main(args);
     }
 }
@@ -1,5 +1,7 @@
 package com.crossover.trial.weather;
 
+import java.io.InputStream;
+
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
 
@@ -36,6 +38,18 @@ public interface WeatherCollectorEndpoint {
                            @PathParam("pointType") String pointType,
                            String datapointJson);
 
+    /**
+     * Update the atmospheric information of many airports in one request. The body is a json list of dicts with
+     * iata, pointType and dataPoint keys, where dataPoint has the same format as for
+     * {@link #updateWeather(String, String, String)}.
+     *
+     * @param datapointsJson a json list of data point updates
+     *
+     * @return HTTP Response code and a json list with the HTTP status code of every update, in request order
+     */
+    
+    Response updateWeather(String datapointsJson);
+
     /**
      * Return a list of known airports as a json formatted list
      *
@@ -66,6 +80,16 @@ public interface WeatherCollectorEndpoint {
                         @PathParam("lat") String latString,
                         @PathParam("long") String longString);
 
+    /**
+     * Add every airport of an airports.dat file to the known airport list in one registry update. Nothing is
+     * added if a line can not be parsed.
+     *
+     * @param airportsDat the airports.dat content, one airport per line
+     * @return HTTP Response code and the number of added airports
+     */
+    
+    Response addAirports(InputStream airportsDat);
+
     /**
      * Remove an airport from the known airport list
      *
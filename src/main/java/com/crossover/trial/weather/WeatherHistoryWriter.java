@@ -0,0 +1,139 @@
+package com.crossover.trial.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.crossover.trial.weather.service.WeatherHistory;
+
+/**
+ * Writes a history window as a JSON array of {"time", "first", "second", "mean", "third", "count"} objects,
+ * straight from its primitive arrays into one buffer. Numbers with up to six decimals, which covers the reported
+ * data points, are formatted without creating Strings; anything else goes through Double.toString.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class WeatherHistoryWriter implements MessageBodyWriter<WeatherHistory.Window> {
+
+    private static final byte[] TIME = bytes("{\"time\":");
+    private static final byte[] FIRST = bytes(",\"first\":");
+    private static final byte[] SECOND = bytes(",\"second\":");
+    private static final byte[] MEAN = bytes(",\"mean\":");
+    private static final byte[] THIRD = bytes(",\"third\":");
+    private static final byte[] COUNT = bytes(",\"count\":");
+
+    /** powers of ten that are exact doubles, for the decimal fast path */
+    private static final double[] POW10 = { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6 };
+
+    /** room for one sample, the buffer is flushed before a sample that may not fit */
+    private static final int SAMPLE_BYTES = 256;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return WeatherHistory.Window.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(WeatherHistory.Window window, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(WeatherHistory.Window window, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        byte[] buf = new byte[8192];
+        int pos = 0;
+        buf[pos++] = '[';
+        for (int i = 0; i < window.size(); i++) {
+            if (pos > buf.length - SAMPLE_BYTES) {
+                entityStream.write(buf, 0, pos);
+                pos = 0;
+            }
+            if (i > 0) {
+                buf[pos++] = ',';
+            }
+            pos = put(buf, pos, TIME);
+            pos = putLong(buf, pos, window.time(i));
+            pos = put(buf, pos, FIRST);
+            pos = putDouble(buf, pos, window.first(i));
+            pos = put(buf, pos, SECOND);
+            pos = putDouble(buf, pos, window.second(i));
+            pos = put(buf, pos, MEAN);
+            pos = putDouble(buf, pos, window.mean(i));
+            pos = put(buf, pos, THIRD);
+            pos = putDouble(buf, pos, window.third(i));
+            pos = put(buf, pos, COUNT);
+            pos = putDouble(buf, pos, window.count(i));
+            buf[pos++] = '}';
+        }
+        buf[pos++] = ']';
+        entityStream.write(buf, 0, pos);
+    }
+
+    static int put(byte[] buf, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    /** decimal digits of a long, written back to front */
+    static int putLong(byte[] buf, int pos, long value) {
+        if (value == Long.MIN_VALUE) {
+            return put(buf, pos, bytes(Long.toString(value)));
+        }
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * A double in the shortest form with up to six decimals that parses back to the same value, like 22.0 or
+     * 768.3, other values as Double.toString writes them
+     */
+    static int putDouble(byte[] buf, int pos, double value) {
+        if (Math.abs(value) < 1e9) {
+            for (int decimals = 0; decimals < POW10.length; decimals++) {
+                long scaled = Math.round(Math.abs(value) * POW10[decimals]);
+                if (scaled / POW10[decimals] == Math.abs(value)) {
+                    if (Double.doubleToRawLongBits(value) < 0) {
+                        buf[pos++] = '-';
+                    }
+                    pos = putLong(buf, pos, scaled / (long) POW10[decimals]);
+                    buf[pos++] = '.';
+                    if (decimals == 0) {
+                        buf[pos++] = '0';
+                        return pos;
+                    }
+                    long fraction = scaled % (long) POW10[decimals];
+                    for (int i = pos + decimals - 1; i >= pos; i--) {
+                        buf[i] = (byte) ('0' + fraction % 10);
+                        fraction /= 10;
+                    }
+                    return pos + decimals;
+                }
+            }
+        }
+        return put(buf, pos, bytes(Double.toString(value)));
+    }
+
+    static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
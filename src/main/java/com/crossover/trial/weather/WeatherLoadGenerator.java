@@ -0,0 +1,412 @@
+package com.crossover.trial.weather;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.model.DataPointUpdate;
+import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.util.WeatherDataGenerator;
+import com.google.gson.Gson;
+
+/**
+ * End to end load generator. Starts the weather server in process on a free port, loads a catalogue of airports
+ * and drives a mix of /collect/weather updates and /query/weather radius queries over HTTP, then reports the
+ * throughput and the latency percentiles of each.
+ *
+ * Two load models are supported:
+ * <ul>
+ * <li>open: requests are due at a fixed total rate, spread over the connections. Latency is measured from the
+ * time a request was due, so a stalled server is charged for the requests that queued up behind the stall
+ * rather than hiding them (coordinated omission).</li>
+ * <li>closed: every connection sends its next request as soon as the previous one is answered. Latency is
+ * measured from sending, and a response slower than the typical one seen during the warmup is also recorded as
+ * the requests the connection would have sent meanwhile.</li>
+ * </ul>
+ *
+ * Arguments are name=value:
+ * <pre>
+ * mode=closed|open       load model, closed by default
+ * rate=2000              open model, requests per second over all connections
+ * connections=64         concurrent connections
+ * writes=0.2             share of collector updates replaying a synthetic weather stream, the rest are queries
+ * radius=200             query radius in KM, 0 queries single airports
+ * airports=10000         size of the synthetic catalogue, see {@link WeatherDataGenerator}
+ * warmup=10 duration=30  seconds of warmup and of measurement
+ * seed=1                 seed of the catalogue and of the request sequence
+ * weather.*=...          server settings as for WeatherServer, weather.airports loads a real catalogue
+ * </pre>
+ */
+public class WeatherLoadGenerator {
+
+    /** length of the update stream the writers replay */
+    private static final int UPDATES = 1 << 16;
+
+    private final boolean open;
+
+    private final double rate;
+
+    private final int connections;
+
+    private final double writes;
+
+    private final double radius;
+
+    private final long seed;
+
+    private String baseUrl;
+
+    private List<String> codes;
+
+    /** paths of the replayed weather updates */
+    private String[] updatePaths;
+
+    /** bodies of the replayed weather updates */
+    private byte[][] updates;
+
+    /** the typical closed loop service time seen during the warmup, the expected interval between requests */
+    private long expectedInterval;
+
+    private WeatherLoadGenerator(String[] args) {
+        String mode = arg(args, "mode", "closed");
+        if (!mode.equals("open") && !mode.equals("closed")) {
+            throw new IllegalArgumentException("mode is open or closed, found " + mode);
+        }
+        this.open = mode.equals("open");
+        this.rate = Double.parseDouble(arg(args, "rate", "2000"));
+        this.connections = Integer.parseInt(arg(args, "connections", "64"));
+        this.writes = Double.parseDouble(arg(args, "writes", "0.2"));
+        this.radius = Double.parseDouble(arg(args, "radius", "200"));
+        this.seed = Long.parseLong(arg(args, "seed", "1"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> settings = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("weather.")) {
+                settings.add(arg);
+            }
+        }
+        WeatherServer.configure(settings.toArray(new String[settings.size()]));
+        // one pooled keep alive connection per load connection
+        System.setProperty("http.maxConnections", arg(args, "connections", "64"));
+
+        WeatherLoadGenerator generator = new WeatherLoadGenerator(args);
+        generator.load(Integer.parseInt(arg(args, "airports", "10000")));
+        HttpServer server = WeatherServer.createServer(URI.create("http://localhost:0/"));
+        server.start();
+        try {
+            generator.baseUrl = "http://localhost:" + server.getListeners().iterator().next().getPort();
+            generator.run(Integer.parseInt(arg(args, "warmup", "10")), false);
+            generator.run(Integer.parseInt(arg(args, "duration", "30")), true);
+        } finally {
+            server.shutdownNow();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Load the configured catalogue, or a synthetic one of the given size, and give every airport weather
+     */
+    private void load(int airports) throws IOException, WeatherException {
+        WeatherService service = WeatherService.INSTANCE;
+        WeatherDataGenerator generator = new WeatherDataGenerator(seed);
+        if (System.getProperty(WeatherServer.AIRPORTS_PROPERTY) != null || System.getProperty(WeatherServer.SNAPSHOT_PROPERTY) != null) {
+            WeatherServer.loadAirports();
+        } else {
+            service.init();
+            service.getAirports().clear();
+            service.getAirports().addAll(generator.airports(airports));
+        }
+        List<AirportData> catalogue = service.getAirportData();
+        service.addDataPoints(generator.initialUpdates(catalogue, DataPointType.WIND));
+        codes = new ArrayList<String>(catalogue.size());
+        for (AirportData ad : catalogue) {
+            codes.add(ad.getIata());
+        }
+        Gson gson = new Gson();
+        Iterator<DataPointUpdate> stream = generator.updates(catalogue, 0);
+        updatePaths = new String[UPDATES];
+        updates = new byte[UPDATES][];
+        for (int i = 0; i < UPDATES; i++) {
+            DataPointUpdate update = stream.next();
+            updatePaths[i] = "/collect/weather/" + update.getIata() + "/" + update.getPointType();
+            updates[i] = gson.toJson(update.getDataPoint()).getBytes(StandardCharsets.UTF_8);
+        }
+        System.out.println(format("%d airports, %s load over %d connections%s, %.0f%% writes, radius %.0f km",
+                codes.size(), open ? "open" : "closed", connections, open ? format(" at %.0f req/s", rate) : "",
+                writes * 100, radius));
+    }
+
+    /**
+     * Drive the load for the given number of seconds
+     *
+     * @param seconds duration
+     * @param report true to print the results, false for the warmup
+     */
+    private void run(int seconds, boolean report) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        Connection[] workers = new Connection[connections];
+        CountDownLatch done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            workers[i] = new Connection(i, start, end, done);
+            Thread thread = new Thread(workers[i], "weather-load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Histogram reads = new Histogram();
+        Histogram writes = new Histogram();
+        long readErrors = 0;
+        long writeErrors = 0;
+        for (Connection worker : workers) {
+            reads.add(worker.readLatency);
+            writes.add(worker.writeLatency);
+            readErrors += worker.readErrors;
+            writeErrors += worker.writeErrors;
+        }
+        Histogram all = new Histogram();
+        all.add(reads);
+        all.add(writes);
+        if (!report) {
+            expectedInterval = all.percentile(0.5);
+            return;
+        }
+        System.out.println(format("%-6s %10s %10s %9s %9s %9s %9s %8s",
+                "", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors"));
+        print("read", reads, readErrors, elapsed);
+        print("write", writes, writeErrors, elapsed);
+        print("all", all, readErrors + writeErrors, elapsed);
+    }
+
+    private void print(String name, Histogram histogram, long errors, long elapsed) {
+        System.out.println(format("%-6s %10d %10.0f %9.2f %9.2f %9.2f %9.2f %8d", name, histogram.sent,
+                histogram.sent * 1e9 / elapsed, histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6,
+                histogram.percentile(0.999) / 1e6, histogram.max / 1e6, errors));
+    }
+
+    /**
+     * One connection sending requests until the end of the run, keeping its own statistics
+     */
+    private final class Connection implements Runnable {
+
+        private final int index;
+
+        private final long start;
+
+        private final long end;
+
+        private final CountDownLatch done;
+
+        private final SplittableRandom random;
+
+        final Histogram readLatency = new Histogram();
+
+        final Histogram writeLatency = new Histogram();
+
+        long readErrors;
+
+        long writeErrors;
+
+        /** updates sent */
+        private long written;
+
+        Connection(int index, long start, long end, CountDownLatch done) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.done = done;
+            this.random = new SplittableRandom(seed + index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // the connection sends every connections-th request of the total schedule
+                double interval = 1e9 * connections / rate;
+                for (long n = 0;; n++) {
+                    long due = open ? start + (long) ((n + (double) index / connections) * interval) : System.nanoTime();
+                    if (due >= end) {
+                        return;
+                    }
+                    while (System.nanoTime() < due) {
+                        LockSupport.parkNanos(due - System.nanoTime());
+                    }
+                    long sent = System.nanoTime();
+                    boolean write = random.nextDouble() < writes;
+                    boolean ok;
+                    if (write) {
+                        // the connections take turns replaying the update stream
+                        int update = (int) ((index + written++ * connections) % UPDATES);
+                        ok = send("POST", updatePaths[update], updates[update]);
+                    } else {
+                        ok = send("GET", "/query/weather/" + codes.get(random.nextInt(codes.size())) + "/" + radius, null);
+                    }
+                    long answered = System.nanoTime();
+                    Histogram histogram = write ? writeLatency : readLatency;
+                    if (open) {
+                        histogram.record(answered - due);
+                    } else {
+                        histogram.recordCorrected(answered - sent, expectedInterval);
+                    }
+                    if (!ok && write) {
+                        writeErrors++;
+                    } else if (!ok) {
+                        readErrors++;
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * @return true if the request was answered with a 2xx status
+     */
+    private boolean send(String method, String path, byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            // read to the end so the connection goes back to the keep alive pool
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0) {
+                        // discard
+                    }
+                }
+            }
+            return status / 100 == 2;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Latency histogram with buckets of about 1.5% of their value, from a nanosecond to hours
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 7;
+
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final long[] counts = new long[SUB + (64 - SUB_BITS) * SUB / 2];
+
+        /** values recorded, including the ones added for coordinated omission */
+        long total;
+
+        /** requests actually sent */
+        long sent;
+
+        long max;
+
+        void record(long nanos) {
+            sent++;
+            add(nanos);
+        }
+
+        /**
+         * Record a closed loop latency. A latency longer than the expected interval between requests also stands
+         * for the requests that would have been sent during it, each waiting one interval less.
+         */
+        void recordCorrected(long nanos, long expectedInterval) {
+            record(nanos);
+            if (expectedInterval > 0) {
+                for (long missed = nanos - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+                    add(missed);
+                }
+            }
+        }
+
+        private void add(long nanos) {
+            long value = Math.max(0, nanos);
+            counts[index(value)]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            sent += other.sent;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * @param p between 0 and 1
+         * @return the value in nanoseconds p of the recorded values are at or below
+         */
+        long percentile(double p) {
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, value(i));
+                }
+            }
+            return max;
+        }
+
+        static int index(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            // the top SUB_BITS bits of the value select the bucket
+            int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+            return SUB + (shift - 1) * (SUB / 2) + (int) (value >>> shift) - SUB / 2;
+        }
+
+        /** the middle of a bucket */
+        static long value(int index) {
+            if (index < SUB) {
+                return index;
+            }
+            int shift = (index - SUB) / (SUB / 2) + 1;
+            long lower = (long) ((index - SUB) % (SUB / 2) + SUB / 2) << shift;
+            return lower + (1L << shift) / 2;
+        }
+    }
+
+    private static String arg(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return defaultValue;
+    }
+}
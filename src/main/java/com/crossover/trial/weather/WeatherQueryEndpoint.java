@@ -3,6 +3,9 @@ package com.crossover.trial.weather;
 import javax.ws.rs.core.Response;
 
 import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.service.WeatherHistory;
+import com.crossover.trial.weather.service.WeatherRollups;
 
 /**
  * The query only API for the Weather Server App. This API is made available to the public internet.
@@ -33,4 +36,29 @@ public interface WeatherQueryEndpoint {
      */
     
     Response weather(String iata,  String radiusString);
+
+    /**
+     * Retrieve the recent data points of one point type of an airport, see {@link WeatherHistory}.
+     *
+     * @param iata the three letter airport code
+     * @param pointType the point type, see {@link DataPointType}
+     * @param fromString earliest update time in milliseconds since the epoch, inclusive, all history if empty
+     * @param toString latest update time, exclusive, all history if empty
+     *
+     * @return an HTTP Response and the data points with their update times, oldest first
+     */
+    Response history(String iata, String pointType, String fromString, String toString);
+
+    /**
+     * Retrieve the minute, hour or day aggregates of one point type of an airport, see {@link WeatherRollups}.
+     *
+     * @param iata the three letter airport code
+     * @param pointType the point type, see {@link DataPointType}
+     * @param resolution minute, hour or day
+     * @param fromString earliest bucket start in milliseconds since the epoch, inclusive, all buckets if empty
+     * @param toString latest bucket start, exclusive, all buckets if empty
+     *
+     * @return an HTTP Response and the buckets with their start times, oldest first
+     */
+    Response rollup(String iata, String pointType, String resolution, String fromString, String toString);
 }
@@ -0,0 +1,89 @@
+package com.crossover.trial.weather;
+
+import static com.crossover.trial.weather.WeatherHistoryWriter.bytes;
+import static com.crossover.trial.weather.WeatherHistoryWriter.put;
+import static com.crossover.trial.weather.WeatherHistoryWriter.putDouble;
+import static com.crossover.trial.weather.WeatherHistoryWriter.putLong;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.crossover.trial.weather.service.WeatherRollups;
+
+/**
+ * Writes rollup buckets as a JSON array of {"start", "reports", "count", "mean", "min", "max", "first", "second",
+ * "third"} objects, formatting the numbers like {@link WeatherHistoryWriter}.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class WeatherRollupWriter implements MessageBodyWriter<WeatherRollups.Buckets> {
+
+    private static final byte[] START = bytes("{\"start\":");
+    private static final byte[] REPORTS = bytes(",\"reports\":");
+    private static final byte[] COUNT = bytes(",\"count\":");
+    private static final byte[] MEAN = bytes(",\"mean\":");
+    private static final byte[] MIN = bytes(",\"min\":");
+    private static final byte[] MAX = bytes(",\"max\":");
+    private static final byte[] FIRST = bytes(",\"first\":");
+    private static final byte[] SECOND = bytes(",\"second\":");
+    private static final byte[] THIRD = bytes(",\"third\":");
+
+    /** room for one bucket, the buffer is flushed before a bucket that may not fit */
+    private static final int BUCKET_BYTES = 384;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return WeatherRollups.Buckets.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(WeatherRollups.Buckets buckets, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(WeatherRollups.Buckets buckets, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        byte[] buf = new byte[8192];
+        int pos = 0;
+        buf[pos++] = '[';
+        for (int i = 0; i < buckets.size(); i++) {
+            if (pos > buf.length - BUCKET_BYTES) {
+                entityStream.write(buf, 0, pos);
+                pos = 0;
+            }
+            if (i > 0) {
+                buf[pos++] = ',';
+            }
+            pos = put(buf, pos, START);
+            pos = putLong(buf, pos, buckets.start(i));
+            pos = put(buf, pos, REPORTS);
+            pos = putLong(buf, pos, buckets.reports(i));
+            pos = put(buf, pos, COUNT);
+            pos = putDouble(buf, pos, buckets.count(i));
+            pos = put(buf, pos, MEAN);
+            pos = putDouble(buf, pos, buckets.mean(i));
+            pos = put(buf, pos, MIN);
+            pos = putDouble(buf, pos, buckets.min(i));
+            pos = put(buf, pos, MAX);
+            pos = putDouble(buf, pos, buckets.max(i));
+            pos = put(buf, pos, FIRST);
+            pos = putDouble(buf, pos, buckets.first(i));
+            pos = put(buf, pos, SECOND);
+            pos = putDouble(buf, pos, buckets.second(i));
+            pos = put(buf, pos, THIRD);
+            pos = putDouble(buf, pos, buckets.third(i));
+            buf[pos++] = '}';
+        }
+        buf[pos++] = ']';
+        entityStream.write(buf, 0, pos);
+    }
+}
@@ -3,7 +3,12 @@ package com.crossover.trial.weather;
 import static java.lang.String.format;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,10 +16,17 @@ import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.HttpServerFilter;
 import org.glassfish.grizzly.http.server.HttpServerProbe;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.util.WeatherConstant;
+
 
 /**
  * This main method will be use by the automated functional grader. You shouldn't move this class or remove the
@@ -26,17 +38,69 @@ public class WeatherServer {
 
     private static final String BASE_URL = "http://localhost:9090/";
 
+    /** system property naming a binary airport snapshot that is memory mapped at startup */
+    public static final String SNAPSHOT_PROPERTY = "weather.snapshot";
+
+    /** system property naming an airports.dat file, converted into the snapshot if that does not exist yet */
+    public static final String AIRPORTS_PROPERTY = "weather.airports";
+
+    /** system property naming the weather journal directory, weather is kept in memory only without it */
+    public static final String JOURNAL_PROPERTY = "weather.journal";
+
+    /** system property, false to acknowledge updates before they are forced to disk */
+    public static final String JOURNAL_SYNC_PROPERTY = "weather.journal.sync";
+
+    /** system property, milliseconds between journal checkpoints */
+    public static final String JOURNAL_CHECKPOINT_PROPERTY = "weather.journal.checkpoint";
+
+    /** system property naming a properties file with defaults for the other weather.* properties */
+    public static final String CONFIG_PROPERTY = "weather.config";
+
+    /** system property, Grizzly worker threads, which only parse requests and hand them to the endpoint pools */
+    public static final String WORKERS_PROPERTY = "weather.grizzly.workers";
+
+    /** system property, Grizzly selector threads */
+    public static final String SELECTORS_PROPERTY = "weather.grizzly.selectors";
+
+    /** system property, requests that may wait for a Grizzly worker */
+    public static final String WORKER_QUEUE_PROPERTY = "weather.grizzly.queue";
+
+    /** system property, threads handling /collect requests */
+    public static final String COLLECT_THREADS_PROPERTY = "weather.collect.threads";
+
+    /** system property, /collect requests that may wait for a thread before 503 is returned */
+    public static final String COLLECT_QUEUE_PROPERTY = "weather.collect.queue";
+
+    /** system property, threads handling /query requests */
+    public static final String QUERY_THREADS_PROPERTY = "weather.query.threads";
+
+    /** system property, /query requests that may wait for a thread before 503 is returned */
+    public static final String QUERY_QUEUE_PROPERTY = "weather.query.queue";
+
+    /**
+     * system property, "virtual" to run the endpoint handlers on virtual threads on JDK 21 and later, the threads
+     * and queue settings of each API then together limit its requests in progress
+     */
+    public static final String THREADS_PROPERTY = "weather.threads";
+
+    /**
+     * @param args optional name=value settings, the same as setting the system properties
+     */
     public static void main(String[] args) {
         try {
             System.out.println("Starting Weather App local testing server: " + BASE_URL);
+            configure(args);
+            loadAirports();
+            openJournal();
 
-            final ResourceConfig resourceConfig = new ResourceConfig();
-            resourceConfig.register(RestWeatherCollectorEndpoint.class);
-            resourceConfig.register(RestWeatherQueryEndpoint.class);
-
-            HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URL), resourceConfig, false);
+            HttpServer server = createServer(URI.create(BASE_URL));
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 server.shutdownNow();
+                try {
+                    WeatherService.INSTANCE.closeJournal();
+                } catch (IOException e) {
+                    Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE, null, e);
+                }
             }));
 
             HttpServerProbe probe = new HttpServerProbe.Adapter() {
@@ -54,8 +118,141 @@ public class WeatherServer {
             // blocks until the process is terminated
             Thread.currentThread().join();
             server.shutdown();
-        } catch (IOException | InterruptedException ex) {
+        } catch (IOException | WeatherException | InterruptedException ex) {
             Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+
+    /**
+     * Apply the command line settings and the config file as system properties, a system property set on the
+     * java command line wins over the config file. Then size the endpoint pools.
+     *
+     * @param args name=value settings
+     */
+    static void configure(String[] args) throws IOException {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("expected name=value but found " + arg);
+            }
+            System.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        String config = System.getProperty(CONFIG_PROPERTY);
+        if (config != null) {
+            Properties defaults = new Properties();
+            try (InputStream in = Files.newInputStream(Paths.get(config))) {
+                defaults.load(in);
+            }
+            for (String name : defaults.stringPropertyNames()) {
+                if (System.getProperty(name) == null) {
+                    System.setProperty(name, defaults.getProperty(name));
+                }
+            }
+        }
+        int collectThreads = Integer.getInteger(COLLECT_THREADS_PROPERTY, EndpointExecutor.COLLECT.getThreads());
+        int collectQueue = Integer.getInteger(COLLECT_QUEUE_PROPERTY, 10000);
+        int queryThreads = Integer.getInteger(QUERY_THREADS_PROPERTY, EndpointExecutor.QUERY.getThreads());
+        int queryQueue = Integer.getInteger(QUERY_QUEUE_PROPERTY, 10000);
+        if ("virtual".equalsIgnoreCase(System.getProperty(THREADS_PROPERTY))) {
+            try {
+                EndpointExecutor.COLLECT.configureVirtual(collectThreads + collectQueue);
+                EndpointExecutor.QUERY.configureVirtual(queryThreads + queryQueue);
+                System.out.println("Handling requests on virtual threads");
+                return;
+            } catch (UnsupportedOperationException e) {
+                Logger.getLogger(WeatherServer.class.getName()).log(Level.WARNING, e.getMessage() + ", using platform threads");
+            }
+        }
+        EndpointExecutor.COLLECT.configure(collectThreads, collectQueue);
+        EndpointExecutor.QUERY.configure(queryThreads, queryQueue);
+    }
+
+    /**
+     * Create the server with every endpoint, not started yet
+     *
+     * @param baseUrl where the server listens, port 0 picks a free port when the server is started
+     * @return the server
+     */
+    static HttpServer createServer(URI baseUrl) {
+        final ResourceConfig resourceConfig = new ResourceConfig();
+        resourceConfig.register(RestWeatherCollectorEndpoint.class);
+        resourceConfig.register(RestWeatherQueryEndpoint.class);
+        resourceConfig.register(RestWeatherStreamEndpoint.class);
+        resourceConfig.register(AtmosphericInformationListWriter.class);
+        resourceConfig.register(WeatherHistoryWriter.class);
+        resourceConfig.register(WeatherRollupWriter.class);
+
+        HttpServer server = GrizzlyHttpServerFactory.createHttpServer(baseUrl, resourceConfig, false);
+        configureGrizzly(server);
+        return server;
+    }
+
+    /**
+     * Size the Grizzly selector and worker pools, settings that are not given keep the Grizzly defaults
+     */
+    static void configureGrizzly(HttpServer server) {
+        Integer workers = Integer.getInteger(WORKERS_PROPERTY);
+        Integer selectors = Integer.getInteger(SELECTORS_PROPERTY);
+        Integer queue = Integer.getInteger(WORKER_QUEUE_PROPERTY);
+        for (NetworkListener listener : server.getListeners()) {
+            TCPNIOTransport transport = listener.getTransport();
+            if (selectors != null) {
+                transport.setSelectorRunnersCount(selectors);
+            }
+            if (workers != null || queue != null) {
+                ThreadPoolConfig pool = transport.getWorkerThreadPoolConfig() == null
+                        ? ThreadPoolConfig.defaultConfig() : transport.getWorkerThreadPoolConfig().copy();
+                if (workers != null) {
+                    pool.setCorePoolSize(workers).setMaxPoolSize(workers);
+                }
+                if (queue != null) {
+                    pool.setQueueLimit(queue);
+                }
+                transport.setWorkerThreadPoolConfig(pool);
+            }
+        }
+    }
+
+    /**
+     * Load the airport catalogue before the first request. A snapshot is mapped as is, an airports.dat file is
+     * converted into the snapshot first when both are configured, an airports.dat file alone is imported into an
+     * empty registry. Without either the service starts with its built in airports.
+     */
+    static void loadAirports() throws IOException, WeatherException {
+        WeatherService weatherService = WeatherService.INSTANCE;
+        String snapshot = System.getProperty(SNAPSHOT_PROPERTY);
+        String airports = System.getProperty(AIRPORTS_PROPERTY);
+        long start = System.nanoTime();
+        int loaded;
+        if (snapshot != null) {
+            Path snapshotFile = Paths.get(snapshot);
+            if (airports != null && !Files.exists(snapshotFile)) {
+                weatherService.writeSnapshot(Paths.get(airports), snapshotFile);
+            }
+            loaded = weatherService.loadSnapshot(snapshotFile);
+        } else if (airports != null) {
+            // the configured catalogue replaces the built in airports, like a snapshot does
+            weatherService.clear();
+            loaded = weatherService.importAirports(Paths.get(airports));
+        } else {
+            weatherService.init();
+            loaded = weatherService.getAirports().count();
+        }
+        System.out.println(format("Loaded %d airports in %d ms", loaded, (System.nanoTime() - start) / 1000000));
+    }
+
+    /**
+     * Replay the weather journal and keep logging to it, if one is configured
+     */
+    static void openJournal() throws IOException {
+        String journal = System.getProperty(JOURNAL_PROPERTY);
+        if (journal == null) {
+            return;
+        }
+        boolean sync = !"false".equalsIgnoreCase(System.getProperty(JOURNAL_SYNC_PROPERTY));
+        long checkpointMillis = Long.getLong(JOURNAL_CHECKPOINT_PROPERTY, WeatherConstant.JOURNAL_CHECKPOINT_MILLIS);
+        long start = System.nanoTime();
+        long records = WeatherService.INSTANCE.openJournal(Paths.get(journal), sync, checkpointMillis);
+        System.out.println(format("Replayed %d journal records in %d ms", records, (System.nanoTime() - start) / 1000000));
+    }
 }
@@ -0,0 +1,22 @@
+package com.crossover.trial.weather;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.crossover.trial.weather.model.AtmosphericInformation;
+
+/**
+ * The push API for the Weather Server App, for clients that would otherwise poll the query API.
+ */
+public interface WeatherStreamEndpoint {
+
+    /**
+     * Follow the atmospheric information of the given airport and the airports in the given radius as a
+     * text/event-stream. Every event carries one airport: the current weather first, then every change.
+     *
+     * @param iata the three letter airport code
+     * @param radiusString the radius, in km, of the airports to follow
+     *
+     * @return an open event stream of {@link AtmosphericInformation} changes
+     */
+    ChunkedOutput<String> weather(String iata, String radiusString);
+}
@@ -47,6 +47,9 @@ public class WeatherException extends Exception {
 
 	@Override
 	public String getMessage() {
+		if (dataPointType == null) {
+			return super.getMessage();
+		}
 		return super.getMessage() + " for data type " + dataPointType.name();
 	}
 
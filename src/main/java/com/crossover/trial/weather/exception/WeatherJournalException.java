@@ -0,0 +1,23 @@
+package com.crossover.trial.weather.exception;
+
+import com.crossover.trial.weather.model.DataPointType;
+
+/**
+ * An update was applied in memory but could not be written to the journal, a server failure rather than a bad
+ * request
+ */
+public class WeatherJournalException extends WeatherException {
+
+	/**
+	 * generated serial id
+	 */
+	private static final long serialVersionUID = 4316712284523571862L;
+
+	public WeatherJournalException(String message, Throwable cause) {
+		this(null, message, cause);
+	}
+
+	public WeatherJournalException(DataPointType dataPointType, String message, Throwable cause) {
+		super(dataPointType, message, cause);
+	}
+}
@@ -3,7 +3,7 @@
  */
 package com.crossover.trial.weather.model;
 
-import java.text.DecimalFormat;
+import java.util.regex.Pattern;
 
 /**
  * @author jdhirendrajoshi
@@ -11,6 +11,9 @@ import java.text.DecimalFormat;
  */
 public class Airport {
 	
+	/** a leading or trailing double quote, compiled once instead of on every setter call */
+	private static final Pattern SURROUNDING_QUOTES = Pattern.compile("^\"|\"$");
+	
 	private String airportName;
 	private String city;
 	private String country;
@@ -21,7 +24,6 @@ public class Airport {
 	private double altitude;
 	private float timezone;
 	private String dst;
-	DecimalFormat df = new DecimalFormat("###.######");
 	
 	/**
 	 * @return the airportName
@@ -170,7 +172,7 @@ public class Airport {
 	 */
 	String trimQuotes(String string){
 		if(string!=null){
-			string = string.replaceAll("^\"|\"$", "");
+			string = SURROUNDING_QUOTES.matcher(string).replaceAll("");
 		}
 		return string;
 		
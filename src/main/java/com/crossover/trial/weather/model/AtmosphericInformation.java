@@ -1,85 +1,127 @@
 package com.crossover.trial.weather.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * encapsulates sensor information for a particular location
+ *
+ * Instances are immutable snapshots, an update creates a new instance through one of the with methods so that
+ * readers always see a consistent set of values. The data points are shared between snapshots and must not be
+ * modified once handed over.
+ *
+ * Every with method increments the version, so the snapshots of one airport are ordered by it.
  */
 public class AtmosphericInformation {
 
     /** temperature in degrees celsius */
-    private DataPoint temperature;
+    private final DataPoint temperature;
 
     /** wind speed in km/h */
-    private DataPoint wind;
+    private final DataPoint wind;
 
     /** humidity in percent */
-    private DataPoint humidity;
+    private final DataPoint humidity;
 
     /** precipitation in cm */
-    private DataPoint precipitation;
+    private final DataPoint precipitation;
 
     /** pressure in mmHg */
-    private DataPoint pressure;
+    private final DataPoint pressure;
 
     /** cloud cover percent from 0 - 100 (integer) */
-    private DataPoint cloudCover;
+    private final DataPoint cloudCover;
 
     /** the last time this data was updated, in milliseconds since UTC epoch */
-    private long lastUpdateTime;
+    private final long lastUpdateTime;
 
-    public AtmosphericInformation() {
+    /** number of updates that led to this snapshot, not part of the JSON representation */
+    private final long version;
 
+    public AtmosphericInformation() {
+        this(null, null, null, null, null, null, 0, 0);
     }
 
     public AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation, DataPoint pressure, DataPoint cloudCover) {
+        this(temperature, wind, humidity, percipitation, pressure, cloudCover, System.currentTimeMillis());
+    }
+
+    public AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation, DataPoint pressure, DataPoint cloudCover, long lastUpdateTime) {
+        this(temperature, wind, humidity, percipitation, pressure, cloudCover, lastUpdateTime, 0);
+    }
+
+    public AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation, DataPoint pressure, DataPoint cloudCover, long lastUpdateTime, long version) {
         this.temperature = temperature;
         this.wind = wind;
         this.humidity = humidity;
         this.precipitation = percipitation;
         this.pressure = pressure;
         this.cloudCover = cloudCover;
-        this.lastUpdateTime = System.currentTimeMillis();
+        this.lastUpdateTime = lastUpdateTime;
+        this.version = version;
     }
 
     public DataPoint getTemperature() {
         return temperature;
     }
-    public void setTemperature(DataPoint temperature) {
-        this.temperature = temperature;
+    public AtmosphericInformation withTemperature(DataPoint temperature, long lastUpdateTime) {
+        return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, lastUpdateTime, version + 1);
     }
     public DataPoint getWind() {
         return wind;
     }
-    public void setWind(DataPoint wind) {
-        this.wind = wind;
+    public AtmosphericInformation withWind(DataPoint wind, long lastUpdateTime) {
+        return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, lastUpdateTime, version + 1);
     }
     public DataPoint getHumidity() {
         return humidity;
     }
-    public void setHumidity(DataPoint humidity) {
-        this.humidity = humidity;
+    public AtmosphericInformation withHumidity(DataPoint humidity, long lastUpdateTime) {
+        return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, lastUpdateTime, version + 1);
     }
     public DataPoint getPrecipitation() {
         return precipitation;
     }
-    public void setPrecipitation(DataPoint precipitation) {
-        this.precipitation = precipitation;
+    public AtmosphericInformation withPrecipitation(DataPoint precipitation, long lastUpdateTime) {
+        return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, lastUpdateTime, version + 1);
     }
     public DataPoint getPressure() {
         return pressure;
     }
-    public void setPressure(DataPoint pressure) {
-        this.pressure = pressure;
+    public AtmosphericInformation withPressure(DataPoint pressure, long lastUpdateTime) {
+        return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, lastUpdateTime, version + 1);
     }
     public DataPoint getCloudCover() {
         return cloudCover;
     }
-    public void setCloudCover(DataPoint cloudCover) {
-        this.cloudCover = cloudCover;
+    public AtmosphericInformation withCloudCover(DataPoint cloudCover, long lastUpdateTime) {
+        return new AtmosphericInformation(temperature, wind, humidity, precipitation, pressure, cloudCover, lastUpdateTime, version + 1);
     }
     public long getLastUpdateTime() {
         return this.lastUpdateTime;
     }
-    public void setLastUpdateTime(long lastUpdateTime) {
-        this.lastUpdateTime = lastUpdateTime;
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param type the point type
+     * @return the data point of the type, null if none was reported
+     */
+    public DataPoint getDataPoint(DataPointType type) {
+        switch (type) {
+            case WIND:
+                return wind;
+            case TEMPERATURE:
+                return temperature;
+            case HUMIDTY:
+                return humidity;
+            case PRESSURE:
+                return pressure;
+            case CLOUDCOVER:
+                return cloudCover;
+            default:
+                return precipitation;
+        }
     }
 }
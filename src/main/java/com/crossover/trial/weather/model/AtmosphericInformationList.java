@@ -0,0 +1,70 @@
+package com.crossover.trial.weather.model;
+
+import java.util.ArrayList;
+
+/**
+ * Response list of atmospheric information that carries the JSON of its elements along, so the response
+ * can be written by concatenating cached fragments instead of serializing every snapshot again.
+ *
+ * An element added without JSON is serialized when the list is written.
+ *
+ * Elements added with their airport slot are folded into a digest of (slot, snapshot version) pairs. Snapshot
+ * versions of a slot only grow, so two lists with the same digest hold the same snapshots in the same order and
+ * the digest can tag the response without looking at the JSON.
+ */
+public class AtmosphericInformationList extends ArrayList<AtmosphericInformation> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the JSON of each element, null if not known */
+    private final ArrayList<byte[]> json = new ArrayList<byte[]>();
+
+    /** digest of the slots and versions of the elements */
+    private long digest = 1;
+
+    /**
+     * @param ai the snapshot
+     * @param fragment the JSON of exactly this snapshot, null if not known
+     */
+    public void add(AtmosphericInformation ai, byte[] fragment) {
+        super.add(ai);
+        json.add(fragment);
+    }
+
+    /**
+     * @param slot the slot of the airport the snapshot belongs to
+     * @param ai the snapshot
+     * @param fragment the JSON of exactly this snapshot, null if not known
+     */
+    public void add(int slot, AtmosphericInformation ai, byte[] fragment) {
+        add(ai, fragment);
+        digest = mix(digest * 31 + mix(slot + 1) + ai.getVersion());
+    }
+
+    @Override
+    public boolean add(AtmosphericInformation ai) {
+        add(ai, null);
+        return true;
+    }
+
+    /**
+     * @return the JSON of element i or null if not known
+     */
+    public byte[] getJson(int i) {
+        return json.get(i);
+    }
+
+    /**
+     * @return a digest of the slots and snapshot versions of the elements added with their slot
+     */
+    public long getDigest() {
+        return digest;
+    }
+
+    /** the SplitMix64 finalizer, spreads every input bit over the result */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,57 @@
+package com.crossover.trial.weather.model;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * One entry of a batch weather update: the data point for a point type of an airport.
+ */
+public class DataPointUpdate {
+
+    /** the three letter IATA code */
+    private String iata;
+
+    /** the point type name, see {@link DataPointType} */
+    private String pointType;
+
+    /** the collected data point */
+    private DataPoint dataPoint;
+
+    public DataPointUpdate() {
+        super();
+    }
+
+    public DataPointUpdate(String iata, String pointType, DataPoint dataPoint) {
+        this.iata = iata;
+        this.pointType = pointType;
+        this.dataPoint = dataPoint;
+    }
+
+    public String getIata() {
+        return iata;
+    }
+
+    public void setIata(String iata) {
+        this.iata = iata;
+    }
+
+    public String getPointType() {
+        return pointType;
+    }
+
+    public void setPointType(String pointType) {
+        this.pointType = pointType;
+    }
+
+    public DataPoint getDataPoint() {
+        return dataPoint;
+    }
+
+    public void setDataPoint(DataPoint dataPoint) {
+        this.dataPoint = dataPoint;
+    }
+
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+    }
+}
@@ -0,0 +1,508 @@
+package com.crossover.trial.weather.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.util.WeatherConstant;
+
+/**
+ * Concurrent registry of the known airports.
+ *
+ * Reads never lock: the IATA index is a {@link ConcurrentHashMap}, the slot table is an array that is copied
+ * only when it grows and published through a volatile field, and the spatial and coordinate indexes are safe
+ * for readers running next to a writer. Administration (add, delete, clear) is serialized on a private lock and
+ * costs O(1) amortized plus the size of one grid cell.
+ *
+ * Slot ids are assigned in order and never reused, so a slot id read from the index keeps naming the same
+ * airport; readers only have to check that the slot is still registered. A reader that needs a consistent view
+ * of several airports brackets its reads with {@link #epoch()} and {@link #unchangedSince(long)}.
+ *
+ * Optionally every airport keeps a {@link NeighbourList} up to a neighbour radius, radius queries within it
+ * skip the spatial index. Adding or deleting an airport patches the lists of its neighbours only.
+ */
+public class AirportRegistry {
+
+    /** serializes writers, readers never take it */
+    private final Object writeLock = new Object();
+
+    private final ConcurrentHashMap<String, AirportSlot> index = new ConcurrentHashMap<String, AirportSlot>();
+
+    /** slot table, entries below {@link #size} are set, replaced by a larger copy when full */
+    private volatile AirportSlot[] slots = new AirportSlot[16];
+
+    /** number of slots handed out */
+    private volatile int size;
+
+    /** incremented before and after every change to the registered airports or their positions, odd meanwhile */
+    private volatile long epoch;
+
+    /** radius in KM of the neighbour lists, 0 if none are kept */
+    private volatile double neighbourRadius;
+
+    private final GeoGrid grid;
+
+    private final CoordinateStore coordinates;
+
+    /** per thread scratch list for radius queries */
+    private final ThreadLocal<SlotList> radiusSlots = ThreadLocal.withInitial(() -> new SlotList(64));
+
+    /**
+     * @param radius earth radius in KM
+     */
+    public AirportRegistry(double radius) {
+        this.grid = new GeoGrid(WeatherConstant.GRID_CELL_DEGREES, radius);
+        this.coordinates = new CoordinateStore(radius);
+    }
+
+    /**
+     * @param iataCode the 3 letter code
+     * @return the slot of the airport or null if not registered
+     */
+    public AirportSlot find(String iataCode) {
+        return iataCode == null ? null : index.get(iataCode);
+    }
+
+    /**
+     * @param id a slot id
+     * @return the slot, which may be empty if the airport was deleted, or null if the id is not handed out
+     */
+    public AirportSlot get(int id) {
+        AirportSlot[] table = slots;
+        return id >= 0 && id < table.length ? table[id] : null;
+    }
+
+    /** number of slot ids handed out, registered or not */
+    public int capacity() {
+        return size;
+    }
+
+    /**
+     * @return a number that changes whenever an airport is added, moved or removed, odd while such a change is
+     *         in progress
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * A reader reads the epoch, then the airports, then checks the epoch with this method, like a seqlock
+     *
+     * @param epoch the epoch read before the airports
+     * @return whether no change was in progress or happened since the epoch was read
+     */
+    public boolean unchangedSince(long epoch) {
+        return (epoch & 1) == 0 && epoch == this.epoch;
+    }
+
+    /** number of registered airports */
+    public int count() {
+        return index.size();
+    }
+
+    /**
+     * Register an airport. A known IATA code keeps its slot and weather, only the position is replaced.
+     *
+     * @param ad the airport
+     * @return the slot of the airport
+     */
+    public AirportSlot add(AirportData ad) {
+        synchronized (writeLock) {
+            epoch++;
+            try {
+                return addLocked(ad);
+            } finally {
+                epoch++;
+            }
+        }
+    }
+
+    /**
+     * Register many airports in one update. No other administration interleaves with it and the epoch stays odd
+     * until the last airport is in, so nothing checked with {@link #unchangedSince(long)}, like a cached radius
+     * result, is built from part of the batch. The update is not atomic for other readers though: a lookup or
+     * radius query running meanwhile may find some airports of the batch and not others.
+     *
+     * @param airports the airports
+     */
+    public void addAll(Collection<AirportData> airports) {
+        synchronized (writeLock) {
+            epoch++;
+            try {
+                // patching the lists costs a list copy per neighbour, a large batch is cheaper to list from scratch
+                boolean rebuild = neighbourRadius > 0 && airports.size() > count() / 8;
+                for (AirportData ad : airports) {
+                    addLocked(ad, !rebuild);
+                }
+                if (rebuild) {
+                    buildNeighbours();
+                }
+            } finally {
+                epoch++;
+            }
+        }
+    }
+
+    /** caller holds the write lock and made the epoch odd */
+    private AirportSlot addLocked(AirportData ad) {
+        return addLocked(ad, true);
+    }
+
+    /** caller holds the write lock and made the epoch odd */
+    private AirportSlot addLocked(AirportData ad, boolean link) {
+        AirportSlot slot = index.get(ad.getIata());
+        if (slot != null) {
+            AirportData old = slot.getAirport();
+            if (link) {
+                unlinkNeighbours(slot);
+            }
+            grid.remove(slot.getId(), old.getLatitude(), old.getLongitude());
+            coordinates.set(slot.getId(), ad.getLatitude(), ad.getLongitude());
+            grid.add(slot.getId(), ad.getLatitude(), ad.getLongitude());
+            slot.setAirport(ad);
+            if (link) {
+                linkNeighbours(slot);
+            }
+            return slot;
+        }
+        AirportSlot[] table = slots;
+        int id = size;
+        if (id == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        slot = new AirportSlot(id, ad);
+        table[id] = slot;
+        // coordinates and grid first, anything reachable through the index is complete
+        coordinates.set(id, ad.getLatitude(), ad.getLongitude());
+        grid.add(id, ad.getLatitude(), ad.getLongitude());
+        slots = table;
+        size = id + 1;
+        index.put(ad.getIata(), slot);
+        if (link) {
+            linkNeighbours(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Delete an airport, its slot stays empty
+     *
+     * @param iataCode the 3 letter code
+     * @return the emptied slot or null if the airport was not registered
+     */
+    public AirportSlot remove(String iataCode) {
+        synchronized (writeLock) {
+            if (!index.containsKey(iataCode)) {
+                return null;
+            }
+            epoch++;
+            try {
+                AirportSlot slot = index.remove(iataCode);
+                unlinkNeighbours(slot);
+                AirportData old = slot.getAirport();
+                slot.setAirport(null);
+                grid.remove(slot.getId(), old.getLatitude(), old.getLongitude());
+                coordinates.remove(slot.getId());
+                return slot;
+            } finally {
+                epoch++;
+            }
+        }
+    }
+
+    /**
+     * Forget all airports, slot ids start over
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            epoch++;
+            try {
+                index.clear();
+                grid.clear();
+                coordinates.clear();
+                slots = new AirportSlot[16];
+                size = 0;
+            } finally {
+                epoch++;
+            }
+        }
+    }
+
+    /**
+     * Replace all airports with the content of a snapshot, record i becomes slot i. The spatial index is taken
+     * from the snapshot when it was built for the same grid, otherwise it is rebuilt.
+     *
+     * @param snapshot the airport catalogue
+     */
+    public void load(AirportSnapshot snapshot) {
+        int n = snapshot.count();
+        synchronized (writeLock) {
+            epoch++;
+            try {
+                index.clear();
+                grid.clear();
+                coordinates.clear();
+                coordinates.reserve(n);
+                AirportSlot[] table = new AirportSlot[Math.max(16, n)];
+                for (int i = 0; i < n; i++) {
+                    AirportData ad = new AirportData(snapshot.iata(i), snapshot.latitude(i), snapshot.longitude(i));
+                    table[i] = new AirportSlot(i, ad);
+                    coordinates.set(i, ad.getLatitude(), ad.getLongitude());
+                }
+                if (snapshot.getCellDegrees() == grid.getCellDegrees() && snapshot.getCellCount() == grid.cellCount()) {
+                    grid.load(snapshot.gridOffsets(), snapshot.gridSlots());
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        grid.add(i, table[i].getAirport().getLatitude(), table[i].getAirport().getLongitude());
+                    }
+                }
+                slots = table;
+                size = n;
+                for (int i = 0; i < n; i++) {
+                    index.put(table[i].getAirport().getIata(), table[i]);
+                }
+                buildNeighbours();
+            } finally {
+                epoch++;
+            }
+        }
+    }
+
+    /** radius in KM up to which radius queries are answered from the neighbour lists, 0 if none are kept */
+    public double neighbourRadius() {
+        return neighbourRadius;
+    }
+
+    /**
+     * Keep a list of the airports within radius of every airport, sorted by distance, or drop the lists. The
+     * lists of all airports are rebuilt without the write lock, queries keep running on the old lists or the grid
+     * and airports can be added and deleted meanwhile. The new lists are swapped in under the lock, they are
+     * built again if the airports changed in between, and under the lock after
+     * {@link WeatherConstant#NEIGHBOUR_BUILD_ATTEMPTS} such attempts.
+     *
+     * @param radius in KM, 0 to drop the lists
+     */
+    public void setNeighbourRadius(double radius) {
+        double target = radius > 0 ? Math.min(radius, WeatherConstant.FULL_SCAN_RADIUS) : 0;
+        for (int attempt = 0; attempt < WeatherConstant.NEIGHBOUR_BUILD_ATTEMPTS; attempt++) {
+            long seen;
+            AirportSlot[] table;
+            int n;
+            // a consistent starting point, not in the middle of a change
+            synchronized (writeLock) {
+                seen = epoch;
+                table = slots;
+                n = size;
+            }
+            NeighbourList[] lists = new NeighbourList[n];
+            if (target > 0) {
+                for (int i = 0; i < n; i++) {
+                    AirportData ad = table[i] == null ? null : table[i].getAirport();
+                    if (ad != null) {
+                        lists[i] = listNeighbours(i, ad, target);
+                    }
+                }
+            }
+            synchronized (writeLock) {
+                // any add or delete since the start changes the epoch, the lists would miss it or name it
+                if (epoch == seen && slots == table && size == n) {
+                    neighbourRadius = target;
+                    for (int i = 0; i < n; i++) {
+                        if (table[i] != null) {
+                            table[i].setNeighbours(lists[i]);
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+        synchronized (writeLock) {
+            neighbourRadius = target;
+            buildNeighbours();
+        }
+    }
+
+    /**
+     * Estimate the length of the neighbour lists for a radius
+     *
+     * @param radius in KM
+     * @param samples number of airports, spread over the slots, whose neighbours are counted
+     * @return the average number of airports within radius of an airport, itself included
+     */
+    public double sampleNeighbours(double radius, int samples) {
+        AirportSlot[] table = slots;
+        int n = Math.min(size, table.length);
+        int step = Math.max(1, n / Math.max(1, samples));
+        SlotList found = radiusSlots.get();
+        long neighbours = 0;
+        int sampled = 0;
+        for (int i = 0; i < n; i += step) {
+            AirportData ad = table[i] == null ? null : table[i].getAirport();
+            if (ad != null) {
+                collect(i, ad, radius, found);
+                neighbours += found.size();
+                sampled++;
+            }
+        }
+        return sampled == 0 ? 0 : (double) neighbours / sampled;
+    }
+
+    /** list the neighbours of every airport from scratch, caller holds the write lock */
+    private void buildNeighbours() {
+        double radius = neighbourRadius;
+        AirportSlot[] table = slots;
+        for (int i = 0; i < size; i++) {
+            AirportSlot slot = table[i];
+            if (slot != null) {
+                AirportData ad = slot.getAirport();
+                slot.setNeighbours(radius > 0 && ad != null ? listNeighbours(slot.getId(), ad, radius) : null);
+            }
+        }
+    }
+
+    /** the registered airports within radius of a slot, sorted by distance */
+    private NeighbourList listNeighbours(int id, AirportData ad, double radius) {
+        SlotList found = radiusSlots.get();
+        collect(id, ad, radius, found);
+        int[] ids = found.slots();
+        int count = 0;
+        double[] distances = new double[found.size()];
+        for (int i = 0; i < found.size(); i++) {
+            AirportSlot slot = slots[ids[i]];
+            if (slot != null && slot.isRegistered()) {
+                ids[count] = ids[i];
+                distances[count++] = ids[i] == id ? 0 : coordinates.distance(id, ids[i]);
+            }
+        }
+        return NeighbourList.of(radius, ids, distances, count);
+    }
+
+    /**
+     * Give a newly placed airport its list and add it to the lists of its neighbours, caller holds the write
+     * lock
+     */
+    private void linkNeighbours(AirportSlot slot) {
+        double radius = neighbourRadius;
+        if (radius <= 0) {
+            return;
+        }
+        NeighbourList own = listNeighbours(slot.getId(), slot.getAirport(), radius);
+        slot.setNeighbours(own);
+        for (int i = 0; i < own.size(); i++) {
+            AirportSlot neighbour = slots[own.id(i)];
+            NeighbourList list = neighbour.getNeighbours();
+            if (neighbour != slot && list != null) {
+                neighbour.setNeighbours(list.with(slot.getId(), own.distance(i)));
+            }
+        }
+    }
+
+    /** remove an airport from the lists of its neighbours and drop its own list, caller holds the write lock */
+    private void unlinkNeighbours(AirportSlot slot) {
+        NeighbourList own = slot.getNeighbours();
+        if (own == null) {
+            return;
+        }
+        slot.setNeighbours(null);
+        for (int i = 0; i < own.size(); i++) {
+            AirportSlot neighbour = slots[own.id(i)];
+            NeighbourList list = neighbour.getNeighbours();
+            if (neighbour != slot && list != null) {
+                neighbour.setNeighbours(list.without(slot.getId()));
+            }
+        }
+    }
+
+    /**
+     * Write an airports.dat file as a snapshot for the spatial index of this registry, see {@link #load}
+     *
+     * @return the number of airports written
+     */
+    public int writeSnapshot(Path airportDataFile, Path snapshotFile) throws IOException, WeatherException {
+        return AirportSnapshot.write(airportDataFile, snapshotFile, grid);
+    }
+
+    /**
+     * Call the consumer for every registered airport, in slot order
+     *
+     * @param consumer receives the slots
+     */
+    public void forEach(Consumer<AirportSlot> consumer) {
+        AirportSlot[] table = slots;
+        int n = Math.min(size, table.length);
+        for (int i = 0; i < n; i++) {
+            AirportSlot slot = table[i];
+            if (slot != null && slot.isRegistered()) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * Call the consumer with every registered airport slot within radius of the given slot, including the
+     * airport itself. Within the neighbour radius the slots are the nearest entries of the airport's
+     * {@link NeighbourList}, in order of distance. Beyond it candidates come from the grid for small radii and
+     * from a scan over all coordinates for large ones, both are then checked by the batched distance kernel of
+     * {@link CoordinateStore}.
+     *
+     * The slots are collected in a per thread buffer, the consumer must not start another radius query.
+     *
+     * @param id the slot at the center of the query
+     * @param radius in KM
+     * @param consumer receives the matching slots
+     */
+    public void forEachInRadius(int id, double radius, Consumer<AirportSlot> consumer) {
+        AirportSlot center = slots[id];
+        AirportData ad = center == null ? null : center.getAirport();
+        if (ad == null) {
+            return;
+        }
+        NeighbourList near = center.getNeighbours();
+        // the table is read after the list, it holds every slot the list refers to
+        AirportSlot[] table = slots;
+        if (near != null && radius <= near.radius()) {
+            int n = near.countWithin(radius);
+            for (int i = 0; i < n; i++) {
+                AirportSlot slot = near.id(i) < table.length ? table[near.id(i)] : null;
+                if (slot != null && slot.isRegistered()) {
+                    consumer.accept(slot);
+                }
+            }
+            return;
+        }
+        SlotList found = radiusSlots.get();
+        collect(id, ad, radius, found);
+        int[] ids = found.slots();
+        for (int i = 0; i < found.size(); i++) {
+            AirportSlot slot = ids[i] < table.length ? table[ids[i]] : null;
+            if (slot != null && slot.isRegistered()) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /** collect the slots within radius of a slot into the list */
+    private void collect(int id, AirportData ad, double radius, SlotList found) {
+        found.clear();
+        if (radius >= WeatherConstant.FULL_SCAN_RADIUS) {
+            coordinates.scanWithinRadius(id, radius, found);
+        } else {
+            grid.forEachCandidate(ad.getLatitude(), ad.getLongitude(), radius, found);
+            found.resize(coordinates.filterWithinRadius(id, radius, found.slots(), found.size()));
+        }
+    }
+
+    /**
+     * Haversine distance between two slots, using the precomputed coordinates.
+     *
+     * @return the distance in KM
+     */
+    public double distance(int id1, int id2) {
+        return coordinates.distance(id1, id2);
+    }
+}
@@ -0,0 +1,129 @@
+package com.crossover.trial.weather.service;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.util.JsonFragments;
+
+/**
+ * A registered airport and its weather, addressed by a slot id that stays the same for as long as the airport
+ * is registered. Slot ids are never handed out twice, a deleted airport leaves an empty slot behind.
+ */
+public class AirportSlot {
+
+    private final int id;
+
+    /** the airport, null once the airport has been deleted */
+    private volatile AirportData airport;
+
+    private final AtomicReference<AtmosphericInformation> atmosphericInformation;
+
+    /** number of weather queries for this airport */
+    private final LongAdder requests = new LongAdder();
+
+    /** set once the airport was queried */
+    private volatile boolean queried;
+
+    /** JSON of the most recently serialized snapshot, replaced when a newer version is asked for */
+    private volatile JsonFragment json;
+
+    /** airports nearby sorted by distance, null unless the registry keeps neighbour lists */
+    private volatile NeighbourList neighbours;
+
+    private static final class JsonFragment {
+
+        final long version;
+
+        final byte[] bytes;
+
+        JsonFragment(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    AirportSlot(int id, AirportData airport) {
+        this.id = id;
+        this.airport = airport;
+        this.atmosphericInformation = new AtomicReference<AtmosphericInformation>(new AtmosphericInformation());
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public AirportData getAirport() {
+        return airport;
+    }
+
+    void setAirport(AirportData airport) {
+        this.airport = airport;
+    }
+
+    /** the airports nearby, see {@link AirportRegistry#setNeighbourRadius(double)}, or null */
+    public NeighbourList getNeighbours() {
+        return neighbours;
+    }
+
+    void setNeighbours(NeighbourList neighbours) {
+        this.neighbours = neighbours;
+    }
+
+    /** true until the airport is deleted */
+    public boolean isRegistered() {
+        return airport != null;
+    }
+
+    /** the latest weather snapshot, never modified once published */
+    public AtmosphericInformation getAtmosphericInformation() {
+        return atmosphericInformation.get();
+    }
+
+    /**
+     * Publish a new weather snapshot if the current one is still the expected one
+     *
+     * @param expect the snapshot the update was based on
+     * @param update the new snapshot
+     * @return false if another update was published first
+     */
+    public boolean compareAndSetAtmosphericInformation(AtmosphericInformation expect, AtmosphericInformation update) {
+        return atmosphericInformation.compareAndSet(expect, update);
+    }
+
+    /**
+     * The JSON of a snapshot of this airport, serialized once per snapshot version. Snapshot versions of a slot
+     * only grow, so the version identifies the snapshot.
+     *
+     * @param ai a snapshot read from this slot
+     * @return its JSON, must not be modified
+     */
+    public byte[] getJson(AtmosphericInformation ai) {
+        JsonFragment cached = json;
+        if (cached != null && cached.version == ai.getVersion()) {
+            return cached.bytes;
+        }
+        byte[] bytes = JsonFragments.toJson(ai);
+        // an older reader must not replace the fragment of a newer snapshot
+        if (cached == null || cached.version < ai.getVersion()) {
+            json = new JsonFragment(ai.getVersion(), bytes);
+        }
+        return bytes;
+    }
+
+    /** @return whether this was the first query, racing first queries may all see true */
+    boolean recordRequest() {
+        requests.increment();
+        if (queried) {
+            return false;
+        }
+        queried = true;
+        return true;
+    }
+
+    /** number of weather queries for this airport */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+}
@@ -0,0 +1,269 @@
+package com.crossover.trial.weather.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.util.AirportDatParser;
+
+/**
+ * Compact binary image of an airport catalogue, written once from airports.dat and memory mapped at startup so a
+ * node does not parse text before serving traffic.
+ *
+ * Layout, little endian:
+ * <pre>
+ * header   magic, version, airport count, grid cell degrees, grid cell count (32 bytes)
+ * records  one 32 byte record per airport in slot order:
+ *          IATA (3 bytes), ICAO (4 bytes, zero if unknown), padding, latitude, longitude (double),
+ *          altitude, timezone (float)
+ * grid     cell count + 1 int offsets followed by the slot ids of every cell, ordered by cell
+ * </pre>
+ *
+ * The record index is the slot id, so the IATA lookup and the spatial index of {@link AirportRegistry} are
+ * restored from the image without sorting or copy on write cell updates, see {@link AirportRegistry#load}.
+ */
+public class AirportSnapshot {
+
+    private static final int MAGIC = 0x41575331;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 32;
+
+    private static final int RECORD_BYTES = 32;
+
+    private final ByteBuffer buf;
+
+    private final int count;
+
+    private final double cellDegrees;
+
+    private final int cellCount;
+
+    private AirportSnapshot(ByteBuffer buf) throws WeatherException {
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.capacity() < HEADER_BYTES || buf.getInt(0) != MAGIC) {
+            throw new WeatherException("Not an airport snapshot");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new WeatherException("Unsupported airport snapshot version " + buf.getInt(4));
+        }
+        this.count = buf.getInt(8);
+        this.cellDegrees = buf.getDouble(12);
+        this.cellCount = buf.getInt(20);
+        if (buf.capacity() != gridSlotsOffset() + 4L * count) {
+            throw new WeatherException("Truncated airport snapshot");
+        }
+    }
+
+    /**
+     * Map a snapshot file, the mapping stays valid after the file is closed
+     *
+     * @throws WeatherException if the file is not a complete snapshot
+     */
+    public static AirportSnapshot open(Path file) throws IOException, WeatherException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new AirportSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Convert an airports.dat file into a snapshot. A repeated IATA code keeps its first slot and takes the later
+     * position, the same as importing the file into the registry. The snapshot is written to a temporary file
+     * and moved into place, a reader never maps a half written file.
+     *
+     * @param airportDataFile airports.dat location
+     * @param snapshotFile the snapshot to write
+     * @param grid grid geometry the spatial index is built for
+     * @return the number of airports written
+     */
+    public static int write(Path airportDataFile, Path snapshotFile, GeoGrid grid) throws IOException, WeatherException {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        Records records = new Records();
+        AirportDatParser.parse(airportDataFile, (iata, icao, latitude, longitude, altitude, timezone) -> {
+            Integer slot = slots.get(iata);
+            if (slot == null) {
+                slot = records.size;
+                slots.put(iata, slot);
+            }
+            records.set(slot, iata, icao, latitude, longitude, altitude, timezone);
+        });
+
+        int n = records.size;
+        int cells = grid.cellCount();
+        // counting sort of the slots by cell
+        int[] offsets = new int[cells + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = grid.cellOf(records.lat[i], records.lon[i]);
+            offsets[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        int[] cellSlots = new int[n];
+        int[] next = Arrays.copyOf(offsets, cells);
+        for (int i = 0; i < n; i++) {
+            cellSlots[next[cellOf[i]]++] = i;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + RECORD_BYTES * n + 4 * (cells + 1) + 4 * n).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n).putDouble(grid.getCellDegrees()).putInt(cells);
+        out.position(HEADER_BYTES);
+        for (int i = 0; i < n; i++) {
+            out.put(records.codes, i * 8, 8);
+            out.putDouble(records.lat[i]).putDouble(records.lon[i]);
+            out.putFloat(records.altitude[i]).putFloat(records.timezone[i]);
+        }
+        for (int offset : offsets) {
+            out.putInt(offset);
+        }
+        for (int slot : cellSlots) {
+            out.putInt(slot);
+        }
+        out.flip();
+
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return n;
+    }
+
+    /** growable columns of the airports read by {@link #write} */
+    private static class Records {
+
+        int size;
+
+        /** IATA, ICAO and padding, 8 bytes per record */
+        byte[] codes = new byte[8 * 1024];
+
+        double[] lat = new double[1024];
+
+        double[] lon = new double[1024];
+
+        float[] altitude = new float[1024];
+
+        float[] timezone = new float[1024];
+
+        void set(int slot, String iata, String icao, double latitude, double longitude, double alt, double tz) {
+            if (slot == lat.length) {
+                int grown = lat.length * 2;
+                codes = Arrays.copyOf(codes, 8 * grown);
+                lat = Arrays.copyOf(lat, grown);
+                lon = Arrays.copyOf(lon, grown);
+                altitude = Arrays.copyOf(altitude, grown);
+                timezone = Arrays.copyOf(timezone, grown);
+            }
+            Arrays.fill(codes, slot * 8, slot * 8 + 8, (byte) 0);
+            System.arraycopy(iata.getBytes(StandardCharsets.US_ASCII), 0, codes, slot * 8, 3);
+            if (icao != null) {
+                System.arraycopy(icao.getBytes(StandardCharsets.US_ASCII), 0, codes, slot * 8 + 3, 4);
+            }
+            lat[slot] = latitude;
+            lon[slot] = longitude;
+            altitude[slot] = (float) alt;
+            timezone[slot] = (float) tz;
+            if (slot == size) {
+                size++;
+            }
+        }
+    }
+
+    /** number of airports, record indexes run from 0 to count() - 1 */
+    public int count() {
+        return count;
+    }
+
+    /** cell edge of the grid the spatial index was built for */
+    public double getCellDegrees() {
+        return cellDegrees;
+    }
+
+    /** number of cells of the grid the spatial index was built for */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public String iata(int i) {
+        return code(record(i), 3);
+    }
+
+    /** @return the ICAO code or null if unknown */
+    public String icao(int i) {
+        int at = record(i) + 3;
+        return buf.get(at) == 0 ? null : code(at, 4);
+    }
+
+    public double latitude(int i) {
+        return buf.getDouble(record(i) + 8);
+    }
+
+    public double longitude(int i) {
+        return buf.getDouble(record(i) + 16);
+    }
+
+    /** @return altitude in feet */
+    public float altitude(int i) {
+        return buf.getFloat(record(i) + 24);
+    }
+
+    /** @return hours offset from UTC, NaN if unknown */
+    public float timezone(int i) {
+        return buf.getFloat(record(i) + 28);
+    }
+
+    /** cell start offsets into {@link #gridSlots()}, getCellCount() + 1 entries */
+    public IntBuffer gridOffsets() {
+        return slice(gridOffsetsOffset(), cellCount + 1);
+    }
+
+    /** slot ids ordered by cell */
+    public IntBuffer gridSlots() {
+        return slice(gridSlotsOffset(), count);
+    }
+
+    private IntBuffer slice(long offset, int ints) {
+        ByteBuffer view = buf.duplicate();
+        view.position((int) offset).limit((int) offset + 4 * ints);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private int record(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("airport " + i + " of " + count);
+        }
+        return HEADER_BYTES + RECORD_BYTES * i;
+    }
+
+    private String code(int at, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buf.get(at + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private long gridOffsetsOffset() {
+        return HEADER_BYTES + (long) RECORD_BYTES * count;
+    }
+
+    private long gridSlotsOffset() {
+        return gridOffsetsOffset() + 4L * (cellCount + 1);
+    }
+}
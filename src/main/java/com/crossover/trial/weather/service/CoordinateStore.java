@@ -0,0 +1,204 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Arrays;
+
+/**
+ * Airport coordinates kept as parallel primitive arrays indexed by airport slot. Latitude and longitude are
+ * stored in radians together with the cosine of the latitude, so the haversine kernels below run over plain
+ * double arrays without touching {@link com.crossover.trial.weather.model.AirportData} objects and without
+ * calling cos for the stored side.
+ *
+ * Empty slots hold NaN coordinates, every distance comparison against them is false so the kernels need no
+ * extra branch to skip them.
+ *
+ * One writer at a time may change the store while any number of readers run kernels. Growing the store
+ * publishes new arrays, readers work on the arrays they started with. The latitude, longitude and cosine of a
+ * slot are separate plain stores, so a kernel running while the slot is written may briefly see a mix of its
+ * old and new position. Callers check slot membership separately, and those that need a consistent result
+ * bracket the kernel with the registry epoch, see {@link AirportRegistry#unchangedSince(long)}.
+ */
+public class CoordinateStore {
+
+    /** earth radius in KM */
+    private final double radius;
+
+    /** the current arrays, replaced when the store grows */
+    private volatile Columns columns = new Columns(0);
+
+    /** one past the highest slot ever set */
+    private volatile int size;
+
+    /** the parallel coordinate arrays */
+    private static final class Columns {
+
+        final double[] lat;
+
+        final double[] lon;
+
+        final double[] cosLat;
+
+        Columns(int length) {
+            lat = new double[length];
+            lon = new double[length];
+            cosLat = new double[length];
+            Arrays.fill(lat, Double.NaN);
+            Arrays.fill(lon, Double.NaN);
+            Arrays.fill(cosLat, Double.NaN);
+        }
+    }
+
+    public CoordinateStore(double radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * Store the position of an airport slot
+     *
+     * @param slot the airport slot
+     * @param latitude in degrees
+     * @param longitude in degrees
+     */
+    public void set(int slot, double latitude, double longitude) {
+        Columns c = ensureCapacity(slot + 1);
+        c.lat[slot] = Math.toRadians(latitude);
+        c.lon[slot] = Math.toRadians(longitude);
+        c.cosLat[slot] = Math.cos(c.lat[slot]);
+        if (slot >= size) {
+            size = slot + 1;
+        }
+    }
+
+    /**
+     * Make room for the given number of slots up front, for bulk loads
+     */
+    public void reserve(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Mark a slot as empty
+     *
+     * @param slot the airport slot
+     */
+    public void remove(int slot) {
+        Columns c = columns;
+        if (slot < size) {
+            c.lat[slot] = Double.NaN;
+            c.lon[slot] = Double.NaN;
+            c.cosLat[slot] = Double.NaN;
+        }
+    }
+
+    public void clear() {
+        columns = new Columns(0);
+        size = 0;
+    }
+
+    /** one past the highest used slot */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Haversine distance between two slots
+     *
+     * @return the distance in KM
+     */
+    public double distance(int slot1, int slot2) {
+        Columns c = columns;
+        double a = haversine(c.lat[slot1], c.lon[slot1], c.cosLat[slot1], c.lat[slot2], c.lon[slot2], c.cosLat[slot2]);
+        return radius * 2 * Math.asin(Math.sqrt(a));
+    }
+
+    /**
+     * Keep only the slots within distance of the origin slot. The slots array is compacted in place.
+     *
+     * @param origin slot at the center of the query
+     * @param distance in KM
+     * @param slots candidate slots
+     * @param count number of candidates in slots
+     * @return number of slots kept at the start of the array
+     */
+    public int filterWithinRadius(int origin, double distance, int[] slots, int count) {
+        final Columns c = columns;
+        final double[] lat = c.lat;
+        final double[] lon = c.lon;
+        final double[] cosLat = c.cosLat;
+        final double limit = limit(distance);
+        final double lat0 = lat[origin];
+        final double lon0 = lon[origin];
+        final double cos0 = cosLat[origin];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int s = slots[i];
+            if (haversine(lat0, lon0, cos0, lat[s], lon[s], cosLat[s]) <= limit) {
+                slots[kept++] = s;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Scan every slot and collect the ones within distance of the origin slot.
+     *
+     * @param origin slot at the center of the query
+     * @param distance in KM
+     * @param out receives the matching slots
+     */
+    public void scanWithinRadius(int origin, double distance, SlotList out) {
+        final Columns c = columns;
+        final double[] lat = c.lat;
+        final double[] lon = c.lon;
+        final double[] cosLat = c.cosLat;
+        final double limit = limit(distance);
+        final double lat0 = lat[origin];
+        final double lon0 = lon[origin];
+        final double cos0 = cosLat[origin];
+        final int n = Math.min(size, lat.length);
+        out.resize(n);
+        final int[] slots = out.slots();
+        int kept = 0;
+        for (int s = 0; s < n; s++) {
+            if (haversine(lat0, lon0, cos0, lat[s], lon[s], cosLat[s]) <= limit) {
+                slots[kept++] = s;
+            }
+        }
+        out.resize(kept);
+    }
+
+    /**
+     * The haversine term for a distance, comparing against it avoids the asin and sqrt per airport:
+     * d <= r  is equivalent to  a <= sin^2(r / 2R)  while r / R is below PI.
+     */
+    private double limit(double distance) {
+        if (distance < 0) {
+            // nothing matches, a is never negative
+            return -1;
+        }
+        double half = distance / (2 * radius);
+        if (half >= Math.PI / 2) {
+            // the whole sphere, a never exceeds 1
+            return 1;
+        }
+        double s = Math.sin(half);
+        return s * s;
+    }
+
+    private static double haversine(double lat1, double lon1, double cos1, double lat2, double lon2, double cos2) {
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin((lon2 - lon1) / 2);
+        return sinLat * sinLat + sinLon * sinLon * cos1 * cos2;
+    }
+
+    private Columns ensureCapacity(int capacity) {
+        Columns c = columns;
+        if (capacity > c.lat.length) {
+            Columns grown = new Columns(Math.max(capacity, Math.max(16, c.lat.length * 2)));
+            System.arraycopy(c.lat, 0, grown.lat, 0, c.lat.length);
+            System.arraycopy(c.lon, 0, grown.lon, 0, c.lon.length);
+            System.arraycopy(c.cosLat, 0, grown.cosLat, 0, c.cosLat.length);
+            columns = c = grown;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,114 @@
+package com.crossover.trial.weather.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts airports whose latest weather update falls inside a sliding window, without walking the airports.
+ *
+ * Each airport is counted in the bucket of the minute of its last update. When an airport is updated again it
+ * moves from its old bucket to the current one. Buckets form a ring over the window and are tagged with the
+ * minute they count, a bucket that has rolled out of the window is simply skipped on read and reset on the
+ * next write. Reading the count costs one pass over the ring whatever the number of airports, the window edge
+ * is exact to the minute.
+ */
+public class FreshnessCounter {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    /** low bits of a bucket hold the count, the high bits the minute it counts */
+    private static final int COUNT_BITS = 24;
+
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final AtomicLongArray buckets;
+
+    /**
+     * @param windowMillis length of the window in milliseconds
+     */
+    public FreshnessCounter(long windowMillis) {
+        this.buckets = new AtomicLongArray((int) Math.max(1, windowMillis / MINUTE));
+    }
+
+    /**
+     * Move an airport from the bucket of its previous update to the bucket of its new one
+     *
+     * @param previousUpdate previous update time in milliseconds, 0 if the airport had no data
+     * @param lastUpdate new update time in milliseconds
+     */
+    public void updated(long previousUpdate, long lastUpdate) {
+        if (previousUpdate > 0) {
+            decrement(previousUpdate / MINUTE);
+        }
+        increment(lastUpdate / MINUTE);
+    }
+
+    /**
+     * Forget an airport, e.g. when it is deleted
+     *
+     * @param lastUpdate the last update time of the airport in milliseconds, 0 if it had no data
+     */
+    public void removed(long lastUpdate) {
+        if (lastUpdate > 0) {
+            decrement(lastUpdate / MINUTE);
+        }
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return the number of airports updated inside the window ending at now
+     */
+    public int count(long now) {
+        long minute = now / MINUTE;
+        long oldest = minute - buckets.length();
+        int count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucket = buckets.get(i);
+            long bucketMinute = bucket >>> COUNT_BITS;
+            if (bucketMinute > oldest && bucketMinute <= minute) {
+                count += (int) (bucket & COUNT_MASK);
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    private void increment(long minute) {
+        int i = (int) (minute % buckets.length());
+        while (true) {
+            long bucket = buckets.get(i);
+            long bucketMinute = bucket >>> COUNT_BITS;
+            long update;
+            if (bucketMinute == minute) {
+                update = bucket + 1;
+            } else if (bucketMinute < minute) {
+                // the bucket still counts an expired minute, start over
+                update = (minute << COUNT_BITS) | 1;
+            } else {
+                // an update from further back than the window, it is not fresh anyway
+                return;
+            }
+            if (buckets.compareAndSet(i, bucket, update)) {
+                return;
+            }
+        }
+    }
+
+    private void decrement(long minute) {
+        int i = (int) (minute % buckets.length());
+        while (true) {
+            long bucket = buckets.get(i);
+            if (bucket >>> COUNT_BITS != minute || (bucket & COUNT_MASK) == 0) {
+                // the bucket has moved on, the airport no longer counts
+                return;
+            }
+            if (buckets.compareAndSet(i, bucket, bucket - 1)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.crossover.trial.weather.service;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Fixed latitude/longitude grid over airport slots, used to narrow radius queries down to the cells that can
+ * intersect the query circle instead of measuring the distance to every known airport.
+ *
+ * The grid only returns candidates, callers still have to check the exact distance.
+ *
+ * Cells are copy on write: a change replaces the whole (small) slot array of one cell, so readers can walk the
+ * grid without locking while a single writer at a time adds and removes slots.
+ */
+public class GeoGrid {
+
+    private final double cellDegrees;
+
+    private final int rows;
+
+    private final int cols;
+
+    /** slots per cell, null for an empty cell */
+    private final AtomicReferenceArray<int[]> cells;
+
+    /** earth radius in KM, the same one used for the distance calculation */
+    private final double radius;
+
+    /**
+     * @param cellDegrees cell edge in degrees, 180 must be a multiple of it
+     * @param radius earth radius in KM
+     */
+    public GeoGrid(double cellDegrees, double radius) {
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180 / cellDegrees);
+        this.cols = (int) Math.ceil(360 / cellDegrees);
+        this.cells = new AtomicReferenceArray<int[]>(rows * cols);
+        this.radius = radius;
+    }
+
+    /**
+     * Add an airport slot to the cell covering the given position
+     *
+     * @param slot the airport slot
+     * @param latitude in degrees
+     * @param longitude in degrees
+     */
+    public void add(int slot, double latitude, double longitude) {
+        int cell = cell(row(latitude), col(longitude));
+        int[] entries = cells.get(cell);
+        if (entries == null) {
+            entries = new int[] { slot };
+        } else {
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = slot;
+        }
+        cells.set(cell, entries);
+    }
+
+    /**
+     * Remove an airport slot, the position must be the one the slot was added with
+     *
+     * @param slot the airport slot
+     * @param latitude in degrees
+     * @param longitude in degrees
+     * @return true if the slot was found
+     */
+    public boolean remove(int slot, double latitude, double longitude) {
+        int cell = cell(row(latitude), col(longitude));
+        int[] entries = cells.get(cell);
+        if (entries == null) {
+            return false;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == slot) {
+                if (entries.length == 1) {
+                    cells.set(cell, null);
+                } else {
+                    int[] remaining = new int[entries.length - 1];
+                    System.arraycopy(entries, 0, remaining, 0, i);
+                    System.arraycopy(entries, i + 1, remaining, i, remaining.length - i);
+                    cells.set(cell, remaining);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, null);
+        }
+    }
+
+    public double getCellDegrees() {
+        return cellDegrees;
+    }
+
+    /** number of cells, cell ids run from 0 to cellCount() - 1 */
+    public int cellCount() {
+        return rows * cols;
+    }
+
+    /**
+     * @param latitude in degrees
+     * @param longitude in degrees
+     * @return the id of the cell covering the position
+     */
+    public int cellOf(double latitude, double longitude) {
+        return cell(row(latitude), col(longitude));
+    }
+
+    /**
+     * Replace every cell with prebuilt content, cell c receives slots[offsets[c]] up to slots[offsets[c + 1]].
+     * This is the bulk counterpart of {@link #add(int, double, double)}, without copying a cell per slot.
+     *
+     * @param offsets cellCount() + 1 start offsets into slots
+     * @param slots the slots of all cells, ordered by cell
+     */
+    public void load(IntBuffer offsets, IntBuffer slots) {
+        for (int c = 0; c < cellCount(); c++) {
+            int from = offsets.get(c);
+            int to = offsets.get(c + 1);
+            if (from == to) {
+                cells.set(c, null);
+                continue;
+            }
+            int[] entries = new int[to - from];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = slots.get(from + i);
+            }
+            cells.set(c, entries);
+        }
+    }
+
+    /**
+     * Call the consumer for every slot in a cell that may lie within distance of the given position.
+     *
+     * @param latitude in degrees
+     * @param longitude in degrees
+     * @param distance in KM
+     * @param consumer receives the candidate slots
+     */
+    public void forEachCandidate(double latitude, double longitude, double distance, IntConsumer consumer) {
+        // angular radius of the query circle
+        double delta = distance / radius;
+        if (delta >= Math.PI) {
+            forEachInRows(0, rows - 1, 0, cols - 1, consumer);
+            return;
+        }
+        double deltaDegrees = Math.toDegrees(delta);
+        double minLat = latitude - deltaDegrees;
+        double maxLat = latitude + deltaDegrees;
+        if (minLat <= -90 || maxLat >= 90) {
+            // the circle contains a pole, every longitude is reachable
+            forEachInRows(row(Math.max(minLat, -90)), row(Math.min(maxLat, 90)), 0, cols - 1, consumer);
+            return;
+        }
+        // widest longitude difference of a spherical cap not containing a pole
+        double deltaLon = Math.toDegrees(Math.asin(Math.sin(delta) / Math.cos(Math.toRadians(latitude))));
+        if (2 * deltaLon + cellDegrees >= 360) {
+            forEachInRows(row(minLat), row(maxLat), 0, cols - 1, consumer);
+            return;
+        }
+        forEachInRows(row(minLat), row(maxLat), col(longitude - deltaLon), col(longitude + deltaLon), consumer);
+    }
+
+    /** visit rows minRow..maxRow and columns minCol..maxCol, wrapping around the antimeridian when minCol > maxCol */
+    private void forEachInRows(int minRow, int maxRow, int minCol, int maxCol, IntConsumer consumer) {
+        for (int r = minRow; r <= maxRow; r++) {
+            if (minCol <= maxCol) {
+                forEachInCols(r, minCol, maxCol, consumer);
+            } else {
+                forEachInCols(r, minCol, cols - 1, consumer);
+                forEachInCols(r, 0, maxCol, consumer);
+            }
+        }
+    }
+
+    private void forEachInCols(int row, int minCol, int maxCol, IntConsumer consumer) {
+        for (int c = minCol; c <= maxCol; c++) {
+            int[] entries = cells.get(cell(row, c));
+            if (entries != null) {
+                for (int slot : entries) {
+                    consumer.accept(slot);
+                }
+            }
+        }
+    }
+
+    private int row(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / cellDegrees);
+        return Math.max(0, Math.min(rows - 1, row));
+    }
+
+    private int col(double longitude) {
+        int col = (int) Math.floor((longitude + 180) / cellDegrees) % cols;
+        return col < 0 ? col + cols : col;
+    }
+
+    private int cell(int row, int col) {
+        return row * cols + col;
+    }
+}
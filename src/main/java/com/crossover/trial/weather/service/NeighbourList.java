@@ -0,0 +1,124 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Arrays;
+
+/**
+ * The airports within a fixed radius of one airport, sorted by distance, including the airport itself at
+ * distance 0. A radius query up to that radius is answered by a binary search for the last neighbour within
+ * the query radius and a walk over the prefix, without touching the grid or the distance kernel.
+ *
+ * Instances are immutable, the registry replaces the list of an airport when a neighbour is added or removed.
+ */
+public final class NeighbourList {
+
+    /** the radius in KM every neighbour within is listed */
+    private final double radius;
+
+    /** neighbour slot ids, ordered by distance */
+    private final int[] ids;
+
+    /** distance of each neighbour in KM, ascending */
+    private final double[] distances;
+
+    private NeighbourList(double radius, int[] ids, double[] distances) {
+        this.radius = radius;
+        this.ids = ids;
+        this.distances = distances;
+    }
+
+    /**
+     * Sort neighbours collected in any order
+     *
+     * @param radius the radius the neighbours were collected for
+     * @param ids neighbour slot ids, only the first count are used
+     * @param distances distance of each neighbour, only the first count are used
+     * @param count number of neighbours
+     */
+    static NeighbourList of(double radius, int[] ids, double[] distances, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+        int[] sortedIds = new int[count];
+        double[] sortedDistances = new double[count];
+        for (int i = 0; i < count; i++) {
+            sortedIds[i] = ids[order[i]];
+            sortedDistances[i] = distances[order[i]];
+        }
+        return new NeighbourList(radius, sortedIds, sortedDistances);
+    }
+
+    /** the radius in KM up to which the list is complete */
+    public double radius() {
+        return radius;
+    }
+
+    /** number of neighbours */
+    public int size() {
+        return ids.length;
+    }
+
+    /** slot id of the i-th nearest neighbour */
+    public int id(int i) {
+        return ids[i];
+    }
+
+    /** distance in KM of the i-th nearest neighbour */
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * @param distance in KM, at most {@link #radius()}
+     * @return the number of neighbours within distance, they are the first ones of the list
+     */
+    public int countWithin(double distance) {
+        // first neighbour further away than distance
+        int low = 0;
+        int high = distances.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (distances[mid] <= distance) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return a copy of this list with the neighbour inserted at its distance
+     */
+    NeighbourList with(int id, double distance) {
+        int at = countWithin(distance);
+        int[] newIds = new int[ids.length + 1];
+        double[] newDistances = new double[ids.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, at);
+        System.arraycopy(distances, 0, newDistances, 0, at);
+        newIds[at] = id;
+        newDistances[at] = distance;
+        System.arraycopy(ids, at, newIds, at + 1, ids.length - at);
+        System.arraycopy(distances, at, newDistances, at + 1, ids.length - at);
+        return new NeighbourList(radius, newIds, newDistances);
+    }
+
+    /**
+     * @return a copy of this list without the neighbour, or this list if it is not a neighbour
+     */
+    NeighbourList without(int id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                int[] newIds = new int[ids.length - 1];
+                double[] newDistances = new double[ids.length - 1];
+                System.arraycopy(ids, 0, newIds, 0, i);
+                System.arraycopy(distances, 0, newDistances, 0, i);
+                System.arraycopy(ids, i + 1, newIds, i, ids.length - i - 1);
+                System.arraycopy(distances, i + 1, newDistances, i, ids.length - i - 1);
+                return new NeighbourList(radius, newIds, newDistances);
+            }
+        }
+        return this;
+    }
+}
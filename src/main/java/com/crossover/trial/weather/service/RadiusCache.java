@@ -0,0 +1,265 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.AtmosphericInformationList;
+
+/**
+ * Bounded cache of radius query results keyed on (airport slot, radius), for the few hot queries that dominate
+ * the traffic.
+ *
+ * An entry remembers the registry epoch and the snapshot version of every airport inside the radius, with or
+ * without weather, at the time it was computed. A lookup only returns it while the registry is unchanged and
+ * none of those airports has published a newer snapshot, so an update invalidates exactly the neighbourhoods
+ * it lies in. Stale entries are dropped on lookup. A result is only cached when no registry change was in
+ * progress or happened while its members were collected, see {@link AirportRegistry#unchangedSince(long)}.
+ *
+ * The cache is split into stripes, each an access ordered map evicting its least recently used entry, so
+ * lookups of different keys rarely contend.
+ */
+public class RadiusCache {
+
+    /** rough fixed cost of an entry: key, map node, entry and result objects */
+    private static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    private final AirportRegistry airports;
+
+    private final Stripe[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    /** estimated heap held by the entries */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param airports the registry the cached slots belong to
+     * @param capacity maximum number of entries
+     * @param stripes number of independently locked stripes, a power of two
+     */
+    public RadiusCache(AirportRegistry airports, int capacity, int stripes) {
+        this.airports = airports;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(Math.max(1, capacity / stripes));
+        }
+    }
+
+    private static final class Key {
+
+        final int slot;
+
+        final double radius;
+
+        Key(int slot, double radius) {
+            this.slot = slot;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return slot == that.slot && Double.compare(radius, that.radius) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(radius);
+            int h = slot * 31 + (int) (bits ^ (bits >>> 32));
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static final class CachedResult {
+
+        final long epoch;
+
+        /** every registered slot within the radius */
+        final int[] members;
+
+        /** snapshot version of each member */
+        final long[] versions;
+
+        final AtmosphericInformationList result;
+
+        final long bytes;
+
+        CachedResult(long epoch, int[] members, long[] versions, int count, AtmosphericInformationList result) {
+            this.epoch = epoch;
+            this.members = members;
+            this.versions = versions;
+            this.result = result;
+            long size = ENTRY_OVERHEAD_BYTES + 12L * count + 8L * result.size();
+            for (int i = 0; i < result.size(); i++) {
+                byte[] json = result.getJson(i);
+                size += json == null ? 0 : json.length;
+            }
+            this.bytes = size;
+        }
+    }
+
+    private final class Stripe extends LinkedHashMap<Key, CachedResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            evictions.increment();
+            bytes.addAndGet(-eldest.getValue().bytes);
+            return true;
+        }
+    }
+
+    /**
+     * @param slot the airport at the center of the query
+     * @param radius in KM
+     * @return the cached result if it is still current, null otherwise. Shared between callers, must not be
+     *         modified.
+     */
+    public AtmosphericInformationList get(int slot, double radius) {
+        Key key = new Key(slot, radius);
+        Stripe stripe = stripe(key);
+        CachedResult entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (isCurrent(entry)) {
+            hits.increment();
+            return entry.result;
+        }
+        synchronized (stripe) {
+            // a newer entry may have replaced it meanwhile
+            if (stripe.get(key) == entry) {
+                stripe.remove(key);
+                bytes.addAndGet(-entry.bytes);
+            }
+        }
+        invalidations.increment();
+        misses.increment();
+        return null;
+    }
+
+    private boolean isCurrent(CachedResult entry) {
+        if (!airports.unchangedSince(entry.epoch)) {
+            return false;
+        }
+        for (int i = 0; i < entry.members.length; i++) {
+            AirportSlot member = airports.get(entry.members[i]);
+            if (member == null || !member.isRegistered()) {
+                return false;
+            }
+            AtmosphericInformation ai = member.getAtmosphericInformation();
+            if (ai.getVersion() != entry.versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cache a result computed from the given members, unless the registry changed since the epoch was read
+     *
+     * @param slot the airport at the center of the query
+     * @param radius in KM
+     * @param epoch the registry epoch read before the members were collected
+     * @param members every registered slot within the radius
+     * @param versions snapshot version of each member the result was built from
+     * @param count number of members
+     * @param result the query result
+     */
+    public void put(int slot, double radius, long epoch, int[] members, long[] versions, int count, AtmosphericInformationList result) {
+        if (!airports.unchangedSince(epoch)) {
+            // collected from a registry in the middle of a change
+            return;
+        }
+        int[] m = members.length == count ? members : Arrays.copyOf(members, count);
+        long[] v = versions.length == count ? versions : Arrays.copyOf(versions, count);
+        CachedResult entry = new CachedResult(epoch, m, v, count, result);
+        Key key = new Key(slot, radius);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            CachedResult old = stripe.put(key, entry);
+            bytes.addAndGet(entry.bytes - (old == null ? 0 : old.bytes));
+        }
+    }
+
+    /**
+     * Drop all entries and reset the statistics
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        bytes.set(0);
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        invalidations.reset();
+    }
+
+    /** number of cached entries */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** lookups that found an entry outdated by an update or a registry change */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /** estimated heap held by the entries, the snapshots themselves are shared with the registry */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private Stripe stripe(Key key) {
+        return stripes[key.hashCode() & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,121 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Query counters for the health stats. Every counter is a striped {@link LongAdder} so query threads never
+ * contend on a shared cell; the per airport counter lives in the {@link AirportSlot} and the radius counters
+ * are fixed width buckets. Totals are only summed when {@link com.crossover.trial.weather.WeatherQueryEndpoint#ping()}
+ * reads them. The queried airports are kept in a set of their own, so listing the per airport counters costs
+ * the number of queried airports rather than the size of the catalogue.
+ */
+public class RequestStats {
+
+    /** all recorded queries */
+    private final LongAdder total = new LongAdder();
+
+    /** queries per radius bucket, the last bucket takes every radius beyond the range */
+    private final LongAdder[] radiusBuckets;
+
+    /** width of a radius bucket in KM */
+    private final double bucketWidth;
+
+    /** every slot queried since the last reset, added on its first query */
+    private final Set<AirportSlot> queried = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param buckets number of radius buckets
+     * @param bucketWidth width of a radius bucket in KM
+     */
+    public RequestStats(int buckets, double bucketWidth) {
+        this.radiusBuckets = new LongAdder[buckets];
+        for (int i = 0; i < buckets; i++) {
+            radiusBuckets[i] = new LongAdder();
+        }
+        this.bucketWidth = bucketWidth;
+    }
+
+    /**
+     * Count a query
+     *
+     * @param slot the queried airport
+     * @param radius the query radius in KM
+     */
+    public void record(AirportSlot slot, double radius) {
+        if (slot.recordRequest()) {
+            queried.add(slot);
+        }
+        total.increment();
+        radiusBuckets[bucket(radius)].increment();
+    }
+
+    /** number of queries recorded since the last reset */
+    public long total() {
+        return total.sum();
+    }
+
+    /**
+     * Call the consumer for every registered airport queried since the last reset, in no particular order
+     *
+     * @param consumer receives the slots
+     */
+    public void forEachQueried(Consumer<AirportSlot> consumer) {
+        for (AirportSlot slot : queried) {
+            if (slot.isRegistered()) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * Forget a deleted airport
+     *
+     * @param slot the emptied slot
+     */
+    public void removed(AirportSlot slot) {
+        queried.remove(slot);
+    }
+
+    /**
+     * @return the number of queries per radius bucket, bucket i counts radii in [i * width, (i + 1) * width)
+     */
+    public long[] radiusHistogram() {
+        long[] hist = new long[radiusBuckets.length];
+        for (int i = 0; i < hist.length; i++) {
+            hist[i] = radiusBuckets[i].sum();
+        }
+        return hist;
+    }
+
+    /** width of a radius bucket in KM */
+    public double getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * @param radius in KM
+     * @return the bucket counting the radius
+     */
+    public int bucket(double radius) {
+        if (!(radius > 0)) {
+            // zero, negative and NaN radius
+            return 0;
+        }
+        double bucket = radius / bucketWidth;
+        return bucket >= radiusBuckets.length - 1 ? radiusBuckets.length - 1 : (int) bucket;
+    }
+
+    /**
+     * Reset the totals, the per airport counters go away with their slots
+     */
+    public void clear() {
+        total.reset();
+        queried.clear();
+        for (LongAdder bucket : radiusBuckets) {
+            bucket.reset();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Growable list of airport slots backed by a primitive array, reused between queries so that collecting radius
+ * query candidates does not allocate.
+ */
+public class SlotList implements IntConsumer {
+
+    private int[] slots;
+
+    private int size;
+
+    public SlotList(int capacity) {
+        slots = new int[Math.max(capacity, 1)];
+    }
+
+    @Override
+    public void accept(int slot) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        slots[size++] = slot;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** the slot array, only the first {@link #size()} entries are valid */
+    public int[] slots() {
+        return slots;
+    }
+
+    /**
+     * Ensure capacity and set the size, used when the slots are written straight into {@link #slots()}
+     *
+     * @param size the new size
+     */
+    public void resize(int size) {
+        if (size > slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(size, slots.length * 2));
+        }
+        this.size = size;
+    }
+}
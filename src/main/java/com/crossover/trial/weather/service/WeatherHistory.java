@@ -0,0 +1,229 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Arrays;
+
+import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointType;
+
+/**
+ * The recent data points of every airport and point type, kept in rings of primitive samples: a timestamp and
+ * the first, second, mean, third and count values of the data point, 48 bytes per sample instead of a DataPoint
+ * object. A ring starts small and doubles up to its capacity, after which the oldest sample is overwritten, so
+ * airports reporting rarely or never cost little.
+ *
+ * Rings are indexed by slot id and point type. Adding to a ring and copying a window out of it lock the ring,
+ * both are short array operations.
+ */
+public class WeatherHistory {
+
+    private static final DataPointType[] TYPES = DataPointType.values();
+
+    /** doubles per sample */
+    static final int FIELDS = 5;
+
+    private final int capacity;
+
+    private final int initialCapacity;
+
+    /** rings by slot id * types + type ordinal, grown and replaced under the lock of this object */
+    private volatile Ring[] rings = new Ring[0];
+
+    /**
+     * @param capacity samples kept per airport and point type
+     * @param initialCapacity samples a ring has room for at first
+     */
+    public WeatherHistory(int capacity, int initialCapacity) {
+        this.capacity = capacity;
+        this.initialCapacity = Math.min(capacity, initialCapacity);
+    }
+
+    private static final class Ring {
+
+        long[] times;
+
+        /** FIELDS values per sample */
+        double[] values;
+
+        /** samples added so far, the next one goes to written % times.length */
+        long written;
+
+        Ring(int size) {
+            times = new long[size];
+            values = new double[size * FIELDS];
+        }
+    }
+
+    /**
+     * Samples of one airport and point type, oldest first
+     */
+    public static final class Window {
+
+        private final long[] times;
+
+        private final double[] values;
+
+        private Window(long[] times, double[] values) {
+            this.times = times;
+            this.values = values;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        /** update time of sample i in milliseconds since the epoch */
+        public long time(int i) {
+            return times[i];
+        }
+
+        public double first(int i) {
+            return values[i * FIELDS];
+        }
+
+        public double second(int i) {
+            return values[i * FIELDS + 1];
+        }
+
+        public double mean(int i) {
+            return values[i * FIELDS + 2];
+        }
+
+        public double third(int i) {
+            return values[i * FIELDS + 3];
+        }
+
+        public double count(int i) {
+            return values[i * FIELDS + 4];
+        }
+    }
+
+    /**
+     * Record the data points a new snapshot changed
+     *
+     * @param slot the airport slot id
+     * @param previous the replaced snapshot
+     * @param updated the new snapshot
+     */
+    public void published(int slot, AtmosphericInformation previous, AtmosphericInformation updated) {
+        for (DataPointType type : TYPES) {
+            DataPoint dp = updated.getDataPoint(type);
+            if (dp != null && dp != previous.getDataPoint(type)) {
+                add(ring(slot, type), updated.getLastUpdateTime(), dp);
+            }
+        }
+    }
+
+    private void add(Ring ring, long time, DataPoint dp) {
+        synchronized (ring) {
+            int size = ring.times.length;
+            if (ring.written == size && size < capacity) {
+                // full but not at capacity yet, the samples are still in order from index 0
+                size = Math.min(capacity, size * 2);
+                ring.times = Arrays.copyOf(ring.times, size);
+                ring.values = Arrays.copyOf(ring.values, size * FIELDS);
+            }
+            int at = (int) (ring.written % size);
+            ring.times[at] = time;
+            int v = at * FIELDS;
+            ring.values[v] = dp.getFirst();
+            ring.values[v + 1] = dp.getSecond();
+            ring.values[v + 2] = dp.getMean();
+            ring.values[v + 3] = dp.getThird();
+            ring.values[v + 4] = dp.getCount();
+            ring.written++;
+        }
+    }
+
+    /**
+     * @param slot the airport slot id
+     * @param type the point type
+     * @param from earliest update time, inclusive, in milliseconds since the epoch
+     * @param to latest update time, exclusive
+     * @return the samples updated within [from, to), oldest first
+     */
+    public Window window(int slot, DataPointType type, long from, long to) {
+        Ring[] current = rings;
+        int index = slot * TYPES.length + type.ordinal();
+        Ring ring = index < current.length ? current[index] : null;
+        if (ring == null) {
+            return new Window(new long[0], new double[0]);
+        }
+        synchronized (ring) {
+            int size = ring.times.length;
+            int stored = (int) Math.min(ring.written, size);
+            int oldest = (int) ((ring.written - stored) % size);
+            int count = 0;
+            for (int i = 0; i < stored; i++) {
+                long time = ring.times[(oldest + i) % size];
+                if (time >= from && time < to) {
+                    count++;
+                }
+            }
+            long[] times = new long[count];
+            double[] values = new double[count * FIELDS];
+            int n = 0;
+            for (int i = 0; i < stored; i++) {
+                int at = (oldest + i) % size;
+                long time = ring.times[at];
+                if (time >= from && time < to) {
+                    times[n] = time;
+                    System.arraycopy(ring.values, at * FIELDS, values, n * FIELDS, FIELDS);
+                    n++;
+                }
+            }
+            return new Window(times, values);
+        }
+    }
+
+    private Ring ring(int slot, DataPointType type) {
+        int index = slot * TYPES.length + type.ordinal();
+        Ring[] current = rings;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = rings;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            if (current[index] == null) {
+                current[index] = new Ring(initialCapacity);
+            }
+            rings = current;
+            return current[index];
+        }
+    }
+
+    /**
+     * Forget the history of a deleted airport
+     *
+     * @param slot the airport slot id
+     */
+    public synchronized void removed(int slot) {
+        Ring[] current = rings;
+        for (int i = slot * TYPES.length; i < (slot + 1) * TYPES.length && i < current.length; i++) {
+            current[i] = null;
+        }
+    }
+
+    /**
+     * Drop every history, used when the slot ids start over
+     */
+    public synchronized void clear() {
+        rings = new Ring[0];
+    }
+
+    /** samples held by all rings, for the ping statistics */
+    public long size() {
+        long size = 0;
+        for (Ring ring : rings) {
+            if (ring != null) {
+                synchronized (ring) {
+                    size += Math.min(ring.written, ring.times.length);
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,524 @@
+package com.crossover.trial.weather.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointType;
+
+/**
+ * Append only log of atmospheric updates, so weather survives a restart.
+ *
+ * Every published snapshot is written as one fixed size record per changed data point. A single writer thread
+ * drains everything appended while it was busy and writes and forces it in one go (group commit), an appender
+ * in sync mode waits for the force of its group only. The log is split into segments; a checkpoint rolls to a
+ * new segment, writes the complete weather of all airports and then drops the older segments, so replay reads
+ * the latest checkpoint plus the segments after it.
+ *
+ * Records carry the snapshot version of their airport, replay keeps the highest version per airport and data
+ * point type, which makes the order of concurrent appends and the overlap between a checkpoint and the segment
+ * after it irrelevant. Deleting an airport writes a tombstone that drops the weather replayed before it.
+ *
+ * Record layout, little endian, 64 bytes: IATA (3 bytes), data point type ordinal or 0xFF for a tombstone,
+ * CRC32 of bytes 8 to 63, version, last update time, mean, first, second, third, count. Replay stops at the
+ * first torn or corrupt record of a segment.
+ */
+public class WeatherJournal implements AutoCloseable {
+
+    public final static Logger LOGGER = Logger.getLogger(WeatherJournal.class.getName());
+
+    static final int RECORD_BYTES = 64;
+
+    private static final byte TOMBSTONE = (byte) 0xFF;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+
+    private static final DataPointType[] TYPES = DataPointType.values();
+
+    private final Path directory;
+
+    private final AirportRegistry airports;
+
+    private final long segmentBytes;
+
+    /** appenders wait for their records to be forced */
+    private final boolean sync;
+
+    /** guards everything below */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** signalled whenever the pending buffer, the durable group or the state changes */
+    private final Condition changed = lock.newCondition();
+
+    /** records appended but not yet taken by the writer */
+    private ByteBuffer pending = newBuffer(64 * 1024);
+
+    /** buffer being written by the writer, swapped with pending */
+    private ByteBuffer writing = newBuffer(64 * 1024);
+
+    /** number of groups handed to the writer and number of groups written */
+    private long appendedGroups, durableGroups;
+
+    /** set by checkpoint, the writer starts a new segment before its next group */
+    private boolean rollRequested;
+
+    private IOException failure;
+
+    private boolean closed;
+
+    /** current segment, only touched by the writer thread after open */
+    private FileChannel segment;
+
+    /** index of the current segment, segments before it are complete */
+    private long segmentIndex;
+
+    private final Thread writer;
+
+    /** checksum of appended records, used under the lock */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Open the journal in a directory and start appending to a new segment. Call {@link #replay} first to
+     * restore the weather of the existing log.
+     *
+     * @param directory the log directory, created if missing
+     * @param airports the registry whose weather is logged
+     * @param segmentBytes size after which a new segment is started
+     * @param sync true to let appenders wait until their records are on disk
+     */
+    public WeatherJournal(Path directory, AirportRegistry airports, long segmentBytes, boolean sync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.airports = airports;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        List<Long> segments = list(SEGMENT_PREFIX);
+        List<Long> checkpoints = list(CHECKPOINT_PREFIX);
+        long last = Math.max(segments.isEmpty() ? 0 : segments.get(segments.size() - 1),
+                checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1));
+        this.segmentIndex = last + 1;
+        this.segment = openSegment(segmentIndex);
+        this.writer = new Thread(this::writeLoop, "weather-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Read the latest checkpoint and the segments after it and hand the restored weather of every airport to
+     * the consumer. Airports that are not registered are skipped.
+     *
+     * @param restored receives the slot and its restored weather
+     * @return number of records read
+     */
+    public long replay(BiConsumer<AirportSlot, AtmosphericInformation> restored) throws IOException {
+        List<Long> checkpoints = list(CHECKPOINT_PREFIX);
+        long from = 0;
+        Map<String, Replayed> state = new HashMap<String, Replayed>();
+        long records = 0;
+        if (!checkpoints.isEmpty()) {
+            from = checkpoints.get(checkpoints.size() - 1);
+            records += read(file(CHECKPOINT_PREFIX, from), state);
+        }
+        for (long index : list(SEGMENT_PREFIX)) {
+            if (index >= from && index < currentSegment()) {
+                records += read(file(SEGMENT_PREFIX, index), state);
+            }
+        }
+        for (Map.Entry<String, Replayed> e : state.entrySet()) {
+            AirportSlot slot = airports.find(e.getKey());
+            if (slot != null && e.getValue().version > 0) {
+                restored.accept(slot, e.getValue().toAtmosphericInformation());
+            }
+        }
+        return records;
+    }
+
+    /** the weather of one airport while replaying */
+    private static class Replayed {
+
+        final DataPoint[] points = new DataPoint[TYPES.length];
+
+        final long[] versions = new long[TYPES.length];
+
+        long version;
+
+        long lastUpdateTime;
+
+        void apply(int type, long recordVersion, long time, DataPoint dp) {
+            if (recordVersion > versions[type]) {
+                versions[type] = recordVersion;
+                points[type] = dp;
+            }
+            version = Math.max(version, recordVersion);
+            lastUpdateTime = Math.max(lastUpdateTime, time);
+        }
+
+        AtmosphericInformation toAtmosphericInformation() {
+            return new AtmosphericInformation(points[DataPointType.TEMPERATURE.ordinal()], points[DataPointType.WIND.ordinal()],
+                    points[DataPointType.HUMIDTY.ordinal()], points[DataPointType.PRECIPITATION.ordinal()],
+                    points[DataPointType.PRESSURE.ordinal()], points[DataPointType.CLOUDCOVER.ordinal()], lastUpdateTime, version);
+        }
+    }
+
+    private long read(Path file, Map<String, Replayed> state) throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 check = new CRC32();
+            byte[] body = new byte[RECORD_BYTES - 8];
+            for (int at = 0; at + RECORD_BYTES <= buf.limit(); at += RECORD_BYTES) {
+                buf.position(at + 8);
+                buf.get(body);
+                check.reset();
+                check.update(body, 0, body.length);
+                if ((int) check.getValue() != buf.getInt(at + 4)) {
+                    LOGGER.log(Level.WARNING, "journal " + file + " ends with a torn record at offset " + at);
+                    break;
+                }
+                byte[] iata = new byte[3];
+                buf.position(at);
+                buf.get(iata);
+                String code = new String(iata, StandardCharsets.US_ASCII);
+                byte type = buf.get(at + 3);
+                if (type == TOMBSTONE) {
+                    state.remove(code);
+                } else {
+                    DataPoint dp = new DataPoint(buf.getDouble(at + 32), buf.getDouble(at + 40), buf.getDouble(at + 24),
+                            buf.getDouble(at + 48), buf.getDouble(at + 56));
+                    state.computeIfAbsent(code, k -> new Replayed()).apply(type, buf.getLong(at + 8), buf.getLong(at + 16), dp);
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Log the data points that changed between two snapshots of an airport
+     *
+     * @throws IOException if the log can not be written, the snapshot is published but not durable
+     */
+    public void append(String iata, AtmosphericInformation previous, AtmosphericInformation updated) throws IOException {
+        long group;
+        lock.lock();
+        try {
+            ensureOpen();
+            int before = pending.position();
+            for (DataPointType type : TYPES) {
+                DataPoint dp = updated.getDataPoint(type);
+                if (dp != null && dp != previous.getDataPoint(type)) {
+                    pending = ensureRemaining(pending, RECORD_BYTES);
+                    put(pending, crc, iata, (byte) type.ordinal(), updated.getVersion(), updated.getLastUpdateTime(), dp);
+                }
+            }
+            if (pending.position() == before) {
+                return;
+            }
+            group = appendedGroups + 1;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (sync) {
+            awaitDurable(group);
+        }
+    }
+
+    /**
+     * Log the deletion of an airport, replay forgets the weather logged for it before
+     */
+    public void deleted(String iata) throws IOException {
+        long group;
+        lock.lock();
+        try {
+            ensureOpen();
+            pending = ensureRemaining(pending, RECORD_BYTES);
+            put(pending, crc, iata, TOMBSTONE, 0, 0, null);
+            group = appendedGroups + 1;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (sync) {
+            awaitDurable(group);
+        }
+    }
+
+    /**
+     * Write the current weather of all airports as a checkpoint and drop the segments it covers. Appends go on
+     * while the checkpoint is written.
+     */
+    public void checkpoint() throws IOException {
+        long index;
+        lock.lock();
+        try {
+            ensureOpen();
+            rollRequested = true;
+            changed.signalAll();
+            while (rollRequested && failure == null) {
+                waitUninterruptibly();
+            }
+            ensureOpen();
+            // every record of an older segment was appended before the roll, after its snapshot was published
+            index = segmentIndex;
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer[] out = { newBuffer(Math.max(RECORD_BYTES, airports.count() * RECORD_BYTES)) };
+        CRC32 check = new CRC32();
+        airports.forEach(slot -> {
+            AirportData ad = slot.getAirport();
+            AtmosphericInformation ai = slot.getAtmosphericInformation();
+            if (ad == null || ai.getVersion() == 0) {
+                return;
+            }
+            for (DataPointType type : TYPES) {
+                DataPoint dp = ai.getDataPoint(type);
+                if (dp != null) {
+                    out[0] = ensureRemaining(out[0], RECORD_BYTES);
+                    put(out[0], check, ad.getIata(), (byte) type.ordinal(), ai.getVersion(), ai.getLastUpdateTime(), dp);
+                }
+            }
+        });
+        out[0].flip();
+        Path target = file(CHECKPOINT_PREFIX, index);
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out[0].hasRemaining()) {
+                channel.write(out[0]);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long old : list(SEGMENT_PREFIX)) {
+            if (old < index) {
+                Files.deleteIfExists(file(SEGMENT_PREFIX, old));
+            }
+        }
+        for (long old : list(CHECKPOINT_PREFIX)) {
+            if (old < index) {
+                Files.deleteIfExists(file(CHECKPOINT_PREFIX, old));
+            }
+        }
+    }
+
+    /**
+     * Write everything appended so far and stop the writer
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                long group;
+                boolean roll;
+                lock.lock();
+                try {
+                    while (pending.position() == 0 && !rollRequested && !closed) {
+                        changed.await();
+                    }
+                    if (pending.position() == 0 && !rollRequested && closed) {
+                        break;
+                    }
+                    ByteBuffer full = pending;
+                    pending = writing;
+                    writing = full;
+                    group = ++appendedGroups;
+                    roll = rollRequested;
+                } finally {
+                    lock.unlock();
+                }
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    segment.write(writing);
+                }
+                writing.clear();
+                if (sync) {
+                    segment.force(false);
+                }
+                long opened = 0;
+                if (roll || segment.size() >= segmentBytes) {
+                    segment.force(false);
+                    segment.close();
+                    opened = currentSegment() + 1;
+                    segment = openSegment(opened);
+                }
+                lock.lock();
+                try {
+                    if (opened != 0) {
+                        segmentIndex = opened;
+                    }
+                    durableGroups = group;
+                    if (roll) {
+                        rollRequested = false;
+                    }
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "weather journal failed", e);
+            lock.lock();
+            try {
+                failure = e;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileChannel openSegment(long index) throws IOException {
+        return FileChannel.open(file(SEGMENT_PREFIX, index), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private long currentSegment() {
+        lock.lock();
+        try {
+            return segmentIndex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitDurable(long group) throws IOException {
+        lock.lock();
+        try {
+            while (durableGroups < group && failure == null) {
+                waitUninterruptibly();
+            }
+            if (durableGroups < group) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** caller holds the lock */
+    private void ensureOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("weather journal is closed");
+        }
+    }
+
+    /** caller holds the lock */
+    private void waitUninterruptibly() {
+        try {
+            changed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void put(ByteBuffer buf, CRC32 crc, String iata, byte type, long version, long time, DataPoint dp) {
+        int at = buf.position();
+        for (int i = 0; i < 3; i++) {
+            buf.put(at + i, i < iata.length() ? (byte) iata.charAt(i) : (byte) ' ');
+        }
+        buf.put(at + 3, type);
+        buf.putLong(at + 8, version);
+        buf.putLong(at + 16, time);
+        buf.putDouble(at + 24, dp == null ? 0 : dp.getMean());
+        buf.putDouble(at + 32, dp == null ? 0 : dp.getFirst());
+        buf.putDouble(at + 40, dp == null ? 0 : dp.getSecond());
+        buf.putDouble(at + 48, dp == null ? 0 : dp.getThird());
+        buf.putDouble(at + 56, dp == null ? 0 : dp.getCount());
+        ByteBuffer body = buf.duplicate();
+        body.limit(at + RECORD_BYTES).position(at + 8);
+        crc.reset();
+        crc.update(body);
+        buf.putInt(at + 4, (int) crc.getValue());
+        buf.position(at + RECORD_BYTES);
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buf, int bytes) {
+        if (buf.remaining() >= bytes) {
+            return buf;
+        }
+        ByteBuffer grown = newBuffer(Math.max(buf.capacity() * 2, buf.position() + bytes));
+        buf.flip();
+        grown.put(buf);
+        return grown;
+    }
+
+    private Path file(String prefix, long index) {
+        return directory.resolve(String.format("%s%016d.log", prefix, index));
+    }
+
+    /** indexes of the files with the given prefix, ascending */
+    private List<Long> list(String prefix) throws IOException {
+        List<Long> indexes = new ArrayList<Long>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*.log")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    indexes.add(Long.parseLong(name.substring(prefix.length(), name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+}
@@ -0,0 +1,326 @@
+package com.crossover.trial.weather.service;
+
+import java.util.Arrays;
+
+import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.util.WeatherConstant;
+
+/**
+ * Minute, hour and day aggregates of the data points of every airport and point type, maintained as the data
+ * points arrive so a query only copies out the buckets it asks for.
+ *
+ * A bucket holds running sums rather than samples: the number of reports, their weight, the weighted sums of
+ * their first, second, mean and third values, and the lowest and highest mean. A report weighs its count, or one
+ * when it has none, so the mean of a bucket is the count-weighted mean of the reported means. The quartiles of a
+ * bucket are the count-weighted averages of the reported quartiles, an estimate, as the samples behind them are
+ * not kept.
+ *
+ * Buckets are aligned to the epoch in UTC and kept sorted by start time, a report older than the oldest kept
+ * bucket of a full series is only counted at the coarser resolutions still covering it. Rollups are indexed by
+ * slot id and point type, one report updates all resolutions of its rollup under the lock of the rollup.
+ */
+public class WeatherRollups {
+
+    /**
+     * The width of a bucket and the number of buckets kept
+     */
+    public enum Resolution {
+        MINUTE(60 * 1000L, WeatherConstant.ROLLUP_MINUTES),
+        HOUR(60 * 60 * 1000L, WeatherConstant.ROLLUP_HOURS),
+        DAY(24 * 60 * 60 * 1000L, WeatherConstant.ROLLUP_DAYS);
+
+        private final long millis;
+
+        private final int buckets;
+
+        Resolution(long millis, int buckets) {
+            this.millis = millis;
+            this.buckets = buckets;
+        }
+
+        /** @return the width of a bucket in milliseconds */
+        public long getMillis() {
+            return millis;
+        }
+
+        /** @return the buckets kept per airport and point type */
+        public int getBuckets() {
+            return buckets;
+        }
+
+        /** @return the start of the bucket the time falls in */
+        public long start(long time) {
+            return Math.floorDiv(time, millis) * millis;
+        }
+    }
+
+    private static final DataPointType[] TYPES = DataPointType.values();
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    /** doubles per bucket */
+    static final int FIELDS = 8;
+
+    private static final int REPORTS = 0;
+    private static final int WEIGHT = 1;
+    private static final int FIRST = 2;
+    private static final int SECOND = 3;
+    private static final int MEAN = 4;
+    private static final int THIRD = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+
+    private final int initialBuckets;
+
+    /** rollups by slot id * types + type ordinal, grown and replaced under the lock of this object */
+    private volatile Rollup[] rollups = new Rollup[0];
+
+    /**
+     * @param initialBuckets buckets a series has room for at first
+     */
+    public WeatherRollups(int initialBuckets) {
+        this.initialBuckets = initialBuckets;
+    }
+
+    /** the buckets of one resolution, sorted by start time */
+    private static final class Series {
+
+        long[] starts;
+
+        /** FIELDS values per bucket */
+        double[] values;
+
+        int size;
+
+        Series(int size) {
+            starts = new long[size];
+            values = new double[size * FIELDS];
+        }
+    }
+
+    /** the series of one airport and point type, one per resolution */
+    private static final class Rollup {
+
+        final Series[] series = new Series[RESOLUTIONS.length];
+
+        Rollup(int initialBuckets) {
+            for (Resolution resolution : RESOLUTIONS) {
+                series[resolution.ordinal()] = new Series(Math.min(initialBuckets, resolution.buckets));
+            }
+        }
+    }
+
+    /**
+     * Aggregates of one airport, point type and resolution, oldest first
+     */
+    public static final class Buckets {
+
+        private final Resolution resolution;
+
+        private final long[] starts;
+
+        private final double[] values;
+
+        private Buckets(Resolution resolution, long[] starts, double[] values) {
+            this.resolution = resolution;
+            this.starts = starts;
+            this.values = values;
+        }
+
+        public Resolution getResolution() {
+            return resolution;
+        }
+
+        public int size() {
+            return starts.length;
+        }
+
+        /** start of bucket i in milliseconds since the epoch */
+        public long start(int i) {
+            return starts[i];
+        }
+
+        /** data points reported within bucket i */
+        public long reports(int i) {
+            return (long) values[i * FIELDS + REPORTS];
+        }
+
+        /** sum of the counts of the reports, a report without a count counts one */
+        public double count(int i) {
+            return values[i * FIELDS + WEIGHT];
+        }
+
+        public double first(int i) {
+            return values[i * FIELDS + FIRST] / count(i);
+        }
+
+        public double second(int i) {
+            return values[i * FIELDS + SECOND] / count(i);
+        }
+
+        public double mean(int i) {
+            return values[i * FIELDS + MEAN] / count(i);
+        }
+
+        public double third(int i) {
+            return values[i * FIELDS + THIRD] / count(i);
+        }
+
+        /** lowest reported mean */
+        public double min(int i) {
+            return values[i * FIELDS + MIN];
+        }
+
+        /** highest reported mean */
+        public double max(int i) {
+            return values[i * FIELDS + MAX];
+        }
+    }
+
+    /**
+     * Aggregate the data points a new snapshot changed
+     *
+     * @param slot the airport slot id
+     * @param previous the replaced snapshot
+     * @param updated the new snapshot
+     */
+    public void published(int slot, AtmosphericInformation previous, AtmosphericInformation updated) {
+        for (DataPointType type : TYPES) {
+            DataPoint dp = updated.getDataPoint(type);
+            if (dp != null && dp != previous.getDataPoint(type)) {
+                add(rollup(slot, type), updated.getLastUpdateTime(), dp);
+            }
+        }
+    }
+
+    private void add(Rollup rollup, long time, DataPoint dp) {
+        double weight = dp.getCount() > 0 ? dp.getCount() : 1;
+        synchronized (rollup) {
+            for (Resolution resolution : RESOLUTIONS) {
+                Series series = rollup.series[resolution.ordinal()];
+                int at = bucket(series, resolution, resolution.start(time));
+                if (at < 0) {
+                    continue;
+                }
+                int v = at * FIELDS;
+                double[] values = series.values;
+                values[v + REPORTS]++;
+                values[v + WEIGHT] += weight;
+                values[v + FIRST] += weight * dp.getFirst();
+                values[v + SECOND] += weight * dp.getSecond();
+                values[v + MEAN] += weight * dp.getMean();
+                values[v + THIRD] += weight * dp.getThird();
+                values[v + MIN] = Math.min(values[v + MIN], dp.getMean());
+                values[v + MAX] = Math.max(values[v + MAX], dp.getMean());
+            }
+        }
+    }
+
+    /**
+     * @return the index of the bucket starting at start, added if missing, -1 if it is older than all buckets
+     *         of a full series
+     */
+    private static int bucket(Series series, Resolution resolution, long start) {
+        int size = series.size;
+        if (size > 0 && series.starts[size - 1] == start) {
+            // the common case, a report for the current bucket
+            return size - 1;
+        }
+        int at = size > 0 && series.starts[size - 1] < start ? size : Arrays.binarySearch(series.starts, 0, size, start);
+        if (at >= 0 && at < size) {
+            return at;
+        }
+        if (at < 0) {
+            at = -at - 1;
+        }
+        if (size == resolution.buckets) {
+            if (at == 0) {
+                return -1;
+            }
+            // drop the oldest bucket
+            System.arraycopy(series.starts, 1, series.starts, 0, size - 1);
+            System.arraycopy(series.values, FIELDS, series.values, 0, (size - 1) * FIELDS);
+            size--;
+            at--;
+        } else if (size == series.starts.length) {
+            int grown = Math.min(resolution.buckets, size * 2);
+            series.starts = Arrays.copyOf(series.starts, grown);
+            series.values = Arrays.copyOf(series.values, grown * FIELDS);
+        }
+        System.arraycopy(series.starts, at, series.starts, at + 1, size - at);
+        System.arraycopy(series.values, at * FIELDS, series.values, (at + 1) * FIELDS, (size - at) * FIELDS);
+        series.starts[at] = start;
+        int v = at * FIELDS;
+        Arrays.fill(series.values, v, v + MIN, 0);
+        series.values[v + MIN] = Double.POSITIVE_INFINITY;
+        series.values[v + MAX] = Double.NEGATIVE_INFINITY;
+        series.size = size + 1;
+        return at;
+    }
+
+    /**
+     * @param slot the airport slot id
+     * @param type the point type
+     * @param resolution the bucket width
+     * @param from earliest bucket start, inclusive, in milliseconds since the epoch
+     * @param to latest bucket start, exclusive
+     * @return the buckets starting within [from, to), oldest first
+     */
+    public Buckets buckets(int slot, DataPointType type, Resolution resolution, long from, long to) {
+        Rollup[] current = rollups;
+        int index = slot * TYPES.length + type.ordinal();
+        Rollup rollup = index < current.length ? current[index] : null;
+        if (rollup == null || from >= to) {
+            return new Buckets(resolution, new long[0], new double[0]);
+        }
+        synchronized (rollup) {
+            Series series = rollup.series[resolution.ordinal()];
+            int first = Arrays.binarySearch(series.starts, 0, series.size, from);
+            first = first < 0 ? -first - 1 : first;
+            int last = Arrays.binarySearch(series.starts, 0, series.size, to);
+            last = last < 0 ? -last - 1 : last;
+            return new Buckets(resolution, Arrays.copyOfRange(series.starts, first, last),
+                    Arrays.copyOfRange(series.values, first * FIELDS, last * FIELDS));
+        }
+    }
+
+    private Rollup rollup(int slot, DataPointType type) {
+        int index = slot * TYPES.length + type.ordinal();
+        Rollup[] current = rollups;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = rollups;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            if (current[index] == null) {
+                current[index] = new Rollup(initialBuckets);
+            }
+            rollups = current;
+            return current[index];
+        }
+    }
+
+    /**
+     * Forget the rollups of a deleted airport
+     *
+     * @param slot the airport slot id
+     */
+    public synchronized void removed(int slot) {
+        Rollup[] current = rollups;
+        for (int i = slot * TYPES.length; i < (slot + 1) * TYPES.length && i < current.length; i++) {
+            current[i] = null;
+        }
+    }
+
+    /**
+     * Drop every rollup, used when the slot ids start over
+     */
+    public synchronized void clear() {
+        rollups = new Rollup[0];
+    }
+}
@@ -3,22 +3,36 @@
  */
 package com.crossover.trial.weather.service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.exception.WeatherJournalException;
 import com.crossover.trial.weather.model.Airport;
 import com.crossover.trial.weather.model.AirportData;
 import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.AtmosphericInformationList;
 import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointUpdate;
 import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.util.AirportDatParser;
 import com.crossover.trial.weather.util.WeatherConstant;
 
 /**
@@ -28,81 +42,122 @@ import com.crossover.trial.weather.util.WeatherConstant;
 public enum WeatherService {
 	
     INSTANCE;
+
+    public final static Logger LOGGER = Logger.getLogger(WeatherService.class.getName());
 	
 	/** earth radius in KM */
     public final double R = 6372.8;
 
-    /** all known airports */
-    private List<AirportData> airportData = new ArrayList<AirportData>();
+    /**
+     * all known airports and their atmospheric information, indexed by IATA code and slot id. Reads never block
+     * behind airport administration, see {@link AirportRegistry}.
+     */
+    private final AirportRegistry airports = new AirportRegistry(R);
+
+    /**
+     * Internal performance counters to better understand most requested information. Due to the stateless
+     * deployment architecture we don't want to write these to disk, but will pull them off using a REST request
+     * and aggregate with other performance metrics, see RestWeatherQueryEndpoint.ping()
+     */
+    private final RequestStats requestStats = new RequestStats(WeatherConstant.RADIUS_BUCKETS, WeatherConstant.RADIUS_BUCKET_WIDTH);
+
+    /** number of airports with recent weather, maintained on every update */
+    private final FreshnessCounter freshness = new FreshnessCounter(WeatherConstant.DATA_FRESHNESS_MILLIS);
+
+    /** results of hot radius queries, see {@link #getAtmosphericInformationInRadius(int, double)} */
+    private final RadiusCache radiusCache = new RadiusCache(airports, WeatherConstant.RADIUS_CACHE_ENTRIES, WeatherConstant.RADIUS_CACHE_STRIPES);
+
+    /** clients following the weather of airports, fed by every published snapshot */
+    private final WeatherSubscriptions subscriptions = new WeatherSubscriptions(airports, WeatherConstant.STREAM_SENDER_THREADS, WeatherConstant.STREAM_KEEPALIVE_MILLIS);
 
-    /** atmospheric information for each airport, idx corresponds with airportData */
-    private List<AtmosphericInformation> atmosphericInformation = new LinkedList<AtmosphericInformation>();
+    /** recent data points of every airport and point type */
+    private final WeatherHistory history = new WeatherHistory(WeatherConstant.HISTORY_SAMPLES, WeatherConstant.HISTORY_INITIAL_SAMPLES);
+
+    /** minute, hour and day aggregates of every airport and point type */
+    private final WeatherRollups rollups = new WeatherRollups(WeatherConstant.ROLLUP_INITIAL_BUCKETS);
+
+    /** durable log of weather updates, null unless opened with {@link #openJournal} */
+    private volatile WeatherJournal journal;
 
     /**
-     * Internal performance counter to better understand most requested information, this map can be improved but
-     * for now provides the basis for future performance optimizations. Due to the stateless deployment architecture
-     * we don't want to write this to disk, but will pull it off using a REST request and aggregate with other
-     * performance metrics {@link #ping()}
+     * held shared while the record of a published snapshot is appended and exclusively while an airport is deleted
+     * and its tombstone appended, so no record of the airport follows its tombstone
      */
-    private Map<AirportData, Integer> requestFrequency = new HashMap<AirportData, Integer>();
+    private final ReadWriteLock[] journalLocks = newJournalLocks();
 
-    private Map<Double, Integer> radiusFreq = new HashMap<Double, Integer>();
-    
+    /** runs the periodic journal checkpoints */
+    private ScheduledExecutorService checkpoints;
+
+    /**
+     * part of every entity tag, replaced whenever the registry is rebuilt and slot ids and snapshot versions
+     * start over, so tags never match across registries or server restarts
+     */
+    private volatile long tagSeed = newTagSeed();
+
+    /** set while the neighbour lists are rebuilt for a new radius */
+    private final AtomicBoolean tuning = new AtomicBoolean();
     
     /**
-	 * @return the airportData
+	 * @return a copy of the registered airports in slot order
 	 */
 	public List<AirportData> getAirportData() {
-		return airportData;
-	}
-
-	/**
-	 * @param airportData the airportData to set
-	 */
-	public void setAirportData(List<AirportData> airportData) {
-		this.airportData = airportData;
+		List<AirportData> retval = new ArrayList<AirportData>(airports.count());
+		airports.forEach(slot -> {
+			// read once, the airport may be deleted concurrently
+			AirportData ad = slot.getAirport();
+			if (ad != null) {
+				retval.add(ad);
+			}
+		});
+		return retval;
 	}
 
 	/**
-	 * @return the atmosphericInformation
+	 * @return a copy of the atmospheric information of the registered airports in slot order
 	 */
 	public List<AtmosphericInformation> getAtmosphericInformation() {
-		return atmosphericInformation;
+		List<AtmosphericInformation> retval = new ArrayList<AtmosphericInformation>(airports.count());
+		airports.forEach(slot -> retval.add(slot.getAtmosphericInformation()));
+		return retval;
 	}
 
 	/**
-	 * @param atmosphericInformation the atmosphericInformation to set
+	 * @param slot an airport slot id
+	 * @return the atmospheric information of the airport or null if the slot is empty
 	 */
-	public void setAtmosphericInformation(List<AtmosphericInformation> atmosphericInformation) {
-		this.atmosphericInformation = atmosphericInformation;
+	public AtmosphericInformation getAtmosphericInformation(int slot) {
+		AirportSlot airportSlot = airports.get(slot);
+		return airportSlot != null && airportSlot.isRegistered() ? airportSlot.getAtmosphericInformation() : null;
 	}
 
 	/**
-	 * @return the requestFrequency
+	 * @param slot an airport slot id
+	 * @param ai a snapshot read from the slot
+	 * @return the JSON of the snapshot, cached per snapshot version
 	 */
-	public Map<AirportData, Integer> getRequestFrequency() {
-		return requestFrequency;
+	public byte[] getAtmosphericInformationJson(int slot, AtmosphericInformation ai) {
+		return airports.get(slot).getJson(ai);
 	}
 
 	/**
-	 * @param requestFrequency the requestFrequency to set
+	 * @return the airport registry
 	 */
-	public void setRequestFrequency(Map<AirportData, Integer> requestFrequency) {
-		this.requestFrequency = requestFrequency;
+	public AirportRegistry getAirports() {
+		return airports;
 	}
 
 	/**
-	 * @return the radiusFreq
+	 * @return the number of airports with weather data updated within {@link WeatherConstant#DATA_FRESHNESS_MILLIS}
 	 */
-	public Map<Double, Integer> getRadiusFreq() {
-		return radiusFreq;
+	public int getDataSize() {
+		return freshness.count(System.currentTimeMillis());
 	}
 
 	/**
-	 * @param radiusFreq the radiusFreq to set
+	 * @return the request counters
 	 */
-	public void setRadiusFreq(Map<Double, Integer> radiusFreq) {
-		this.radiusFreq = radiusFreq;
+	public RequestStats getRequestStats() {
+		return requestStats;
 	}
 
 	/**
@@ -112,9 +167,95 @@ public enum WeatherService {
      * @param radius query radius
      */
     public void updateRequestFrequency(String iata, Double radius) {
-        AirportData airportData = findAirportData(iata);
-        requestFrequency.put(airportData, requestFrequency.getOrDefault(airportData, 0) + 1);
-        radiusFreq.put(radius, radiusFreq.getOrDefault(radius, 0));
+        AirportSlot slot = airports.find(iata);
+        if (slot != null) {
+            requestStats.record(slot, radius);
+            sampleNeighbourRadius();
+        }
+    }
+
+    /**
+     * Records information about how often requests are made
+     *
+     * @param slot the slot id of the queried airport
+     * @param radius query radius
+     */
+    public void updateRequestFrequency(int slot, double radius) {
+        AirportSlot airportSlot = airports.get(slot);
+        if (airportSlot != null) {
+            requestStats.record(airportSlot, radius);
+            sampleNeighbourRadius();
+        }
+    }
+
+    /**
+     * Now and then check the neighbour radius against the recorded queries, a rebuild runs in the background
+     * and queries keep being answered meanwhile
+     */
+    private void sampleNeighbourRadius() {
+        if (ThreadLocalRandom.current().nextInt(WeatherConstant.NEIGHBOUR_TUNE_INTERVAL) != 0) {
+            return;
+        }
+        double radius = popularRadius();
+        if (radius != airports.neighbourRadius() && tuning.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    tuneNeighbourRadius();
+                } finally {
+                    tuning.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Size the neighbour lists of the airports to the popular query radii: the smallest radius bucket bound
+     * that covers {@link WeatherConstant#NEIGHBOUR_RADIUS_COVERAGE} of the recorded queries. The lists grow as
+     * soon as popular queries go beyond them and shrink once they are more than twice as large as needed. A
+     * radius whose lists would not fit {@link WeatherConstant#NEIGHBOUR_MAX_ENTRIES} is reduced until they do.
+     *
+     * @return the neighbour radius in KM, 0 while too few queries are recorded
+     */
+    public double tuneNeighbourRadius() {
+        double radius = popularRadius();
+        if (radius != airports.neighbourRadius()) {
+            airports.setNeighbourRadius(radius);
+        }
+        return airports.neighbourRadius();
+    }
+
+    /** the neighbour radius the recorded queries ask for, the current one if no change is worth a rebuild */
+    private double popularRadius() {
+        double current = airports.neighbourRadius();
+        long[] hist = requestStats.radiusHistogram();
+        long total = 0;
+        for (long count : hist) {
+            total += count;
+        }
+        if (total < WeatherConstant.NEIGHBOUR_MIN_QUERIES) {
+            return current;
+        }
+        // the last bucket is open ended, queries beyond the histogram range are left to the spatial index
+        long covered = 0;
+        int bucket = 0;
+        while (bucket < hist.length - 2 && covered + hist[bucket] < WeatherConstant.NEIGHBOUR_RADIUS_COVERAGE * total) {
+            covered += hist[bucket++];
+        }
+        double radius = affordableRadius((bucket + 1) * requestStats.getBucketWidth());
+        return radius > current || radius < current / 2 ? radius : current;
+    }
+
+    /**
+     * Shrink a neighbour radius until the lists of all airports fit {@link WeatherConstant#NEIGHBOUR_MAX_ENTRIES},
+     * estimated from a sample of airports. The number of neighbours grows with the area of the radius.
+     */
+    private double affordableRadius(double radius) {
+        double entries = airports.sampleNeighbours(radius, WeatherConstant.NEIGHBOUR_SAMPLES) * airports.count();
+        if (entries <= WeatherConstant.NEIGHBOUR_MAX_ENTRIES) {
+            return radius;
+        }
+        double width = requestStats.getBucketWidth();
+        return Math.floor(radius * Math.sqrt(WeatherConstant.NEIGHBOUR_MAX_ENTRIES / entries) / width) * width;
     }
 
     /**
@@ -124,20 +265,139 @@ public enum WeatherService {
      * @return airport data or null if not found
      */
     public AirportData findAirportData(String iataCode) {
-        return airportData.stream()
-            .filter(ap -> ap.getIata().equals(iataCode))
-            .findFirst().orElse(null);
+        AirportSlot slot = airports.find(iataCode);
+        return slot == null ? null : slot.getAirport();
     }
 
     /**
-     * Given an iataCode find the airport data
+     * Given an iataCode find the slot of the airport
      *
      * @param iataCode as a string
-     * @return airport data or null if not found
+     * @return slot id of the airport or -1 if not found
      */
     public int getAirportDataIdx(String iataCode) {
-        AirportData ad = findAirportData(iataCode);
-        return airportData.indexOf(ad);
+        AirportSlot slot = airports.find(iataCode);
+        return slot == null ? -1 : slot.getId();
+    }
+
+    /**
+     * Call the consumer with the slot of every airport within radius of the given airport slot, including the
+     * airport itself, see {@link AirportRegistry#forEachInRadius(int, double, java.util.function.Consumer)}.
+     *
+     * @param slot the slot of the airport at the center of the query
+     * @param radius in KM
+     * @param consumer receives the matching slots
+     */
+    public void forEachAirportInRadius(int slot, double radius, IntConsumer consumer) {
+        airports.forEachInRadius(slot, radius, found -> consumer.accept(found.getId()));
+    }
+
+    /**
+     * The weather of every airport with data within radius of the given airport, including the airport itself.
+     * Results are cached per (slot, radius) until an airport inside the radius publishes new weather or the
+     * registry changes, see {@link RadiusCache}.
+     *
+     * @param slot the slot of the airport at the center of the query
+     * @param radius in KM
+     * @return the matching weather with its JSON, shared with other callers and not to be modified
+     */
+    public AtmosphericInformationList getAtmosphericInformationInRadius(int slot, double radius) {
+        AtmosphericInformationList cached = radiusCache.get(slot, radius);
+        if (cached != null) {
+            return cached;
+        }
+        // read before the members, the cache refuses the result if the registry changed meanwhile
+        long epoch = airports.epoch();
+        AtmosphericInformationList result = new AtmosphericInformationList();
+        int[][] members = { new int[16] };
+        long[][] versions = { new long[16] };
+        int[] count = { 0 };
+        airports.forEachInRadius(slot, radius, found -> {
+            AtmosphericInformation ai = found.getAtmosphericInformation();
+            if (count[0] == members[0].length) {
+                members[0] = Arrays.copyOf(members[0], count[0] * 2);
+                versions[0] = Arrays.copyOf(versions[0], count[0] * 2);
+            }
+            members[0][count[0]] = found.getId();
+            versions[0][count[0]++] = ai.getVersion();
+            if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null
+                    || ai.getPressure() != null || ai.getTemperature() != null || ai.getWind() != null) {
+                result.add(found.getId(), ai, found.getJson(ai));
+            }
+        });
+        radiusCache.put(slot, radius, epoch, members[0], versions[0], count[0], result);
+        return result;
+    }
+
+    /**
+     * An entity tag for a query result, derived from the slots and snapshot versions of its elements without
+     * serializing them
+     *
+     * @param result a list built with the slots of its elements
+     * @return the opaque tag value
+     */
+    public String getEntityTag(AtmosphericInformationList result) {
+        return Long.toHexString(tagSeed) + "-" + Long.toHexString(result.getDigest());
+    }
+
+    private static long newTagSeed() {
+        return ThreadLocalRandom.current().nextLong() ^ System.nanoTime();
+    }
+
+    /**
+     * Follow the weather of every airport within radius of the given airport, including the airport itself.
+     * The current weather is delivered first, then every published snapshot, see {@link WeatherSubscriptions}.
+     *
+     * @param slot the slot of the airport at the center
+     * @param radius in KM
+     * @param sink receives the snapshots
+     * @return the subscription, to be closed when the client goes away
+     */
+    public WeatherSubscriptions.Subscription subscribe(int slot, double radius, WeatherSubscriptions.Sink sink) {
+        SlotList slots = new SlotList(16);
+        airports.forEachInRadius(slot, radius, found -> slots.accept(found.getId()));
+        return subscriptions.subscribe(Arrays.copyOf(slots.slots(), slots.size()), sink);
+    }
+
+    /**
+     * @return the open weather subscriptions, for their statistics
+     */
+    public WeatherSubscriptions getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * The recent data points of an airport, see {@link WeatherHistory}
+     *
+     * @param slot the slot of the airport
+     * @param type the point type
+     * @param from earliest update time, inclusive, in milliseconds since the epoch
+     * @param to latest update time, exclusive
+     * @return the data points updated within [from, to), oldest first
+     */
+    public WeatherHistory.Window getHistory(int slot, DataPointType type, long from, long to) {
+        return history.window(slot, type, from, to);
+    }
+
+    /**
+     * The aggregated data points of an airport, see {@link WeatherRollups}
+     *
+     * @param slot the slot of the airport
+     * @param type the point type
+     * @param resolution the bucket width
+     * @param from earliest bucket start, inclusive, in milliseconds since the epoch
+     * @param to latest bucket start, exclusive
+     * @return the buckets starting within [from, to), oldest first
+     */
+    public WeatherRollups.Buckets getRollups(int slot, DataPointType type, WeatherRollups.Resolution resolution, long from, long to) {
+        return rollups.buckets(slot, type, resolution, from, to);
+    }
+
+    /**
+     * @return the radius query cache, for its statistics
+     */
+    public RadiusCache getRadiusCache() {
+        return radiusCache;
     }
 
     /**
@@ -151,19 +411,45 @@ public enum WeatherService {
         double deltaLat = Math.toRadians(ad2.getLatitude() - ad1.getLatitude());
         double deltaLon = Math.toRadians(ad2.getLongitude() - ad1.getLongitude());
         double a =  Math.pow(Math.sin(deltaLat / 2), 2) + Math.pow(Math.sin(deltaLon / 2), 2)
-                * Math.cos(ad1.getLatitude()) * Math.cos(ad2.getLatitude());
+                * Math.cos(Math.toRadians(ad1.getLatitude())) * Math.cos(Math.toRadians(ad2.getLatitude()));
         double c = 2 * Math.asin(Math.sqrt(a));
         return R * c;
     }
 
+    /**
+     * Haversine distance between two airport slots, using the precomputed coordinates.
+     *
+     * @param slot1 airport 1
+     * @param slot2 airport 2
+     * @return the distance in KM
+     */
+    public double calculateDistance(int slot1, int slot2) {
+        return airports.distance(slot1, slot2);
+    }
+
+    /**
+     * Forget all airports, weather data and request statistics, like {@link #init()} without the built in airports
+     * @throws WeatherException if a journal is open
+     */
+    public synchronized void clear() throws WeatherException {
+        checkNoJournal();
+        airports.clear();
+        radiusCache.clear();
+        subscriptions.clear();
+        history.clear();
+        rollups.clear();
+        requestStats.clear();
+        airports.setNeighbourRadius(0);
+        tagSeed = newTagSeed();
+        freshness.clear();
+    }
+
     /**
      * A dummy init method that loads hard coded data
-     * @throws WeatherException 
+     * @throws WeatherException if a journal is open
      */
-    public void init() throws WeatherException {
-        airportData.clear();
-        atmosphericInformation.clear();
-        requestFrequency.clear();
+    public synchronized void init() throws WeatherException {
+        clear();
 
        try {
 			addAirport("BOS", 42.364347, -71.005181);
@@ -177,10 +463,8 @@ public enum WeatherService {
     }
     
     
-    public void initFromFile() throws WeatherException {
-    	airportData.clear();
-    	atmosphericInformation.clear();
-    	requestFrequency.clear();
+    public synchronized void initFromFile() throws WeatherException {
+    	clear();
         
         //args = airports.dat
         InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream("airports.dat");
@@ -205,28 +489,153 @@ public enum WeatherService {
         
     }
     
+    /**
+     * Register every airport of an airports.dat stream, see {@link #importAirports(InputStream)}
+     *
+     * @param airportDataStream airports.dat content
+     */
     public void upload(InputStream airportDataStream) throws IOException, WeatherException{
-        BufferedReader reader = new BufferedReader(new InputStreamReader(airportDataStream));
-        String l = null;
-        String[] strArr = null;
-        Airport airport = null;
-        while ((l = reader.readLine()) != null) {
-            
-        	strArr = new String[11];
-        	airport = new Airport();
-        	strArr = l.split(",");
-        	populateAirportData(strArr,airport);	
-        	
-        	try {
-				addAirport(airport.getIata(),Double.valueOf(airport.getLatitude()),Double.valueOf(airport.getLongitude()));
-			} catch (NumberFormatException | WeatherException e) {
-				throw new WeatherException(e);
-			}
-        	
-	        
+        importAirports(airportDataStream);
+    }
+
+    /**
+     * Register every airport of an airports.dat stream in one registry update. The whole stream is parsed
+     * first, a malformed line registers nothing. Lines without an IATA code are skipped.
+     *
+     * @param airportDataStream airports.dat content
+     * @return the number of registered airports
+     * @throws IOException if the stream can not be read
+     * @throws WeatherException if a line can not be parsed
+     */
+    public int importAirports(InputStream airportDataStream) throws IOException, WeatherException{
+        List<AirportData> parsed = new ArrayList<AirportData>();
+        AirportDatParser.parse(airportDataStream, (iata, icao, latitude, longitude, altitude, timezone) -> parsed.add(new AirportData(iata, latitude, longitude)));
+        airports.addAll(parsed);
+        return parsed.size();
+    }
+
+    /**
+     * Register every airport of an airports.dat file, the file is memory mapped instead of read through a stream.
+     *
+     * @param airportDataFile airports.dat location
+     * @return the number of registered airports
+     * @throws IOException if the file can not be read
+     * @throws WeatherException if a line can not be parsed
+     */
+    public int importAirports(Path airportDataFile) throws IOException, WeatherException{
+        List<AirportData> parsed = new ArrayList<AirportData>();
+        AirportDatParser.parse(airportDataFile, (iata, icao, latitude, longitude, altitude, timezone) -> parsed.add(new AirportData(iata, latitude, longitude)));
+        airports.addAll(parsed);
+        return parsed.size();
+    }
+
+    /**
+     * Replace all airports with a memory mapped snapshot, see {@link AirportSnapshot}. Weather data and request
+     * statistics start over, like {@link #init()}.
+     *
+     * @param snapshotFile a snapshot written by {@link #writeSnapshot(Path, Path)}
+     * @return the number of registered airports
+     * @throws IOException if the file can not be read
+     * @throws WeatherException if the file is not a valid snapshot or a journal is open
+     */
+    public synchronized int loadSnapshot(Path snapshotFile) throws IOException, WeatherException{
+        checkNoJournal();
+        AirportSnapshot snapshot = AirportSnapshot.open(snapshotFile);
+        requestStats.clear();
+        freshness.clear();
+        tagSeed = newTagSeed();
+        subscriptions.clear();
+        history.clear();
+        rollups.clear();
+        airports.load(snapshot);
+        radiusCache.clear();
+        return snapshot.count();
+    }
+
+    /**
+     * Convert an airports.dat file into a snapshot that {@link #loadSnapshot(Path)} can map at startup
+     *
+     * @return the number of airports written
+     */
+    public int writeSnapshot(Path airportDataFile, Path snapshotFile) throws IOException, WeatherException{
+        return airports.writeSnapshot(airportDataFile, snapshotFile);
+    }
+
+    /**
+     * Restore the weather logged in a journal directory and log every further update there. Start up loads the
+     * airports first, weather of airports that are not registered is not restored. A checkpoint is written right
+     * after the replay and then periodically.
+     *
+     * @param directory the journal directory
+     * @param sync true to acknowledge an update only once it is on disk
+     * @param checkpointMillis interval between checkpoints
+     * @return the number of journal records replayed
+     * @throws IOException if the journal can not be read or written
+     */
+    public synchronized long openJournal(Path directory, boolean sync, long checkpointMillis) throws IOException{
+        closeJournal();
+        WeatherJournal opened = new WeatherJournal(directory, airports, WeatherConstant.JOURNAL_SEGMENT_BYTES, sync);
+        long records;
+        try {
+            records = opened.replay(this::restored);
+            opened.checkpoint();
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        journal = opened;
+        checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weather-journal-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpoints.scheduleWithFixedDelay(() -> {
+            try {
+                opened.checkpoint();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "journal checkpoint failed", e);
+            }
+        }, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+        return records;
+    }
+
+    /**
+     * Stop logging updates, everything logged so far is written
+     */
+    public synchronized void closeJournal() throws IOException{
+        WeatherJournal open = journal;
+        if (open == null) {
+            return;
+        }
+        journal = null;
+        checkpoints.shutdownNow();
+        open.close();
+    }
+
+    /**
+     * The resets start the snapshot versions over without logging it, an open journal would replay the weather
+     * logged before the reset on the next start
+     */
+    private void checkNoJournal() throws WeatherException {
+        if (journal != null) {
+            throw new WeatherException("close the weather journal before resetting the airports");
         }
     }
 
+    /** install the weather restored from the journal, bypassing the journal itself */
+    private void restored(AirportSlot slot, AtmosphericInformation restored) {
+        AtmosphericInformation current;
+        do {
+            current = slot.getAtmosphericInformation();
+            if (current.getVersion() >= restored.getVersion()) {
+                return;
+            }
+        } while (!slot.compareAndSetAtmosphericInformation(current, restored));
+        freshness.updated(current.getLastUpdateTime(), restored.getLastUpdateTime());
+        history.published(slot.getId(), current, restored);
+        rollups.published(slot.getId(), current, restored);
+    }
+
     public void populateAirportData(String[] strArr, Airport airport) {
 		
     	if(strArr==null || strArr.length==0)
@@ -253,16 +662,27 @@ public enum WeatherService {
      * @param pointType the point type {@link DataPointType}
      * @param dp a datapoint object holding pointType data
      *
-     * @throws WeatherException if the update can not be completed
+     * @throws WeatherException if the airport is not known or the update can not be completed
+     * @throws WeatherJournalException if the update is applied but could not be logged
      */
     public void addDataPoint(String iataCode, String pointType, DataPoint dp) throws WeatherException {
     	try{
-	        int airportDataIdx = WeatherService.INSTANCE.getAirportDataIdx(iataCode);
-	        if(null != atmosphericInformation && atmosphericInformation.size()>0)
-	        {
-		        AtmosphericInformation ai = atmosphericInformation.get(airportDataIdx);
-		        updateAtmosphericInformation(ai, pointType, dp);
+	        AirportSlot slot = airports.find(iataCode);
+	        if (slot == null) {
+	        	throw new WeatherException("unknown airport " + iataCode);
+	        }
+	        // publish a new snapshot, retry if another collector replaced it in the meantime
+	        AtmosphericInformation current;
+	        AtmosphericInformation updated;
+	        do {
+	        	current = slot.getAtmosphericInformation();
+	        	updated = updateAtmosphericInformation(current, pointType, dp);
+	        } while (updated != current && !slot.compareAndSetAtmosphericInformation(current, updated));
+	        if (updated != current) {
+	        	published(slot, current, updated);
 	        }
+	    }catch (WeatherJournalException e) {
+	    	throw new WeatherJournalException(DataPointType.valueOf(pointType.toUpperCase()), e.getMessage(), e);
 	    }catch (WeatherException e) {
         	//LOGGER.log(Level.SEVERE, e.getMessage(), e);
             throw new WeatherException(DataPointType.valueOf(pointType.toUpperCase()), e.getMessage(), e);
@@ -274,55 +694,156 @@ public enum WeatherService {
     }
 
     /**
-     * update atmospheric information with the given data point for the given point type
+     * Update the weather of many airports at once. Consecutive updates for the same airport are folded into a
+     * single new snapshot, so a collector reporting every point type of an airport in one batch costs one index
+     * lookup and one publish for that airport.
+     *
+     * @param updates the data points to apply, in order
+     * @return one entry per update, null if it was applied or the reason it was rejected
+     */
+    public WeatherException[] addDataPoints(List<DataPointUpdate> updates) {
+        WeatherException[] errors = new WeatherException[updates.size()];
+        int from = 0;
+        while (from < updates.size()) {
+            String iataCode = updates.get(from).getIata();
+            int to = from + 1;
+            while (to < updates.size() && Objects.equals(iataCode, updates.get(to).getIata())) {
+                to++;
+            }
+            AirportSlot slot = airports.find(iataCode);
+            if (slot != null) {
+                addDataPoints(slot, updates, from, to, errors);
+            } else {
+                for (int i = from; i < to; i++) {
+                    errors[i] = new WeatherException(parseDataPointType(updates.get(i).getPointType()), "unknown airport " + iataCode);
+                }
+            }
+            from = to;
+        }
+        return errors;
+    }
+
+    /**
+     * fold updates[from, to) into one snapshot of the given airport and publish it
+     */
+    private void addDataPoints(AirportSlot slot, List<DataPointUpdate> updates, int from, int to, WeatherException[] errors) {
+        AtmosphericInformation current;
+        AtmosphericInformation updated;
+        do {
+            current = slot.getAtmosphericInformation();
+            updated = current;
+            for (int i = from; i < to; i++) {
+                DataPointUpdate update = updates.get(i);
+                try {
+                    updated = updateAtmosphericInformation(updated, update.getPointType(), update.getDataPoint());
+                    errors[i] = null;
+                } catch (Exception e) {
+                    errors[i] = new WeatherException(parseDataPointType(update.getPointType()), e.getMessage(), e);
+                }
+            }
+        } while (updated != current && !slot.compareAndSetAtmosphericInformation(current, updated));
+        if (updated != current) {
+            try {
+                published(slot, current, updated);
+            } catch (WeatherJournalException e) {
+                for (int i = from; i < to; i++) {
+                    if (errors[i] == null) {
+                        errors[i] = new WeatherJournalException(parseDataPointType(updates.get(i).getPointType()), e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pointType a point type name in any case
+     * @return the point type or null if the name is not known
+     */
+    private static DataPointType parseDataPointType(String pointType) {
+        try {
+            return pointType == null ? null : DataPointType.valueOf(pointType.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Called once a new weather snapshot of an airport has been published
+     *
+     * @param slot the airport
+     * @param previous the replaced snapshot
+     * @param updated the new snapshot
+     * @throws WeatherJournalException if the update is published but could not be logged
+     */
+    private void published(AirportSlot slot, AtmosphericInformation previous, AtmosphericInformation updated) throws WeatherJournalException {
+        freshness.updated(previous.getLastUpdateTime(), updated.getLastUpdateTime());
+        subscriptions.published(slot, updated);
+        history.published(slot.getId(), previous, updated);
+        rollups.published(slot.getId(), previous, updated);
+        WeatherJournal log = journal;
+        if (log != null) {
+            Lock lock = journalLock(slot).readLock();
+            lock.lock();
+            try {
+                // null once deleted, the tombstone is logged already
+                AirportData ad = slot.getAirport();
+                if (ad != null) {
+                    log.append(ad.getIata(), previous, updated);
+                }
+            } catch (IOException e) {
+                throw new WeatherJournalException("update not logged: " + e.getMessage(), e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * atmospheric information updated with the given data point for the given point type, the given object is
+     * not modified
      *
-     * @param ai the atmospheric information object to update
+     * @param ai the current atmospheric information
      * @param pointType the data point type as a string
      * @param dp the actual data point
+     * @return a new atmospheric information with the data point, or ai if the data point is out of range
      */
-    public void updateAtmosphericInformation(AtmosphericInformation ai, String pointType, DataPoint dp) throws WeatherException,Exception {
+    public AtmosphericInformation updateAtmosphericInformation(AtmosphericInformation ai, String pointType, DataPoint dp) throws WeatherException,Exception {
         final DataPointType dptype = DataPointType.valueOf(pointType.toUpperCase());
 
 		switch (dptype) {
 			case WIND:
 				if (dp.getMean() >= WeatherConstant.WIND_LOWER_LIMIT) {
-	                ai.setWind(dp);
-	                ai.setLastUpdateTime(System.currentTimeMillis());
+	                return ai.withWind(dp, System.currentTimeMillis());
 	            }
 				break;
 				
 			case TEMPERATURE:
 				if (dp.getMean() >= WeatherConstant.TEMPERATURE_LOWER_LIMIT && dp.getMean() < WeatherConstant.TEMPERATURE_UPPER_LIMIT) {
-	                ai.setTemperature(dp);
-	                ai.setLastUpdateTime(System.currentTimeMillis());
+	                return ai.withTemperature(dp, System.currentTimeMillis());
 	            }
 				break;
 				
 			case HUMIDTY:
 				if (dp.getMean() >= WeatherConstant.HUMIDTY_LOWER_LIMIT && dp.getMean() < WeatherConstant.HUMIDTY_UPPER_LIMIT) {
-	                ai.setHumidity(dp);
-	                ai.setLastUpdateTime(System.currentTimeMillis());
+	                return ai.withHumidity(dp, System.currentTimeMillis());
 	            }
 				break;
 				
 			case PRESSURE:
 				if (dp.getMean() >= WeatherConstant.PRESSURE_LOWER_LIMIT && dp.getMean() < WeatherConstant.PRESSURE_UPPER_LIMIT) {
-	                ai.setPressure(dp);
-	                ai.setLastUpdateTime(System.currentTimeMillis());
+	                return ai.withPressure(dp, System.currentTimeMillis());
 	            }
 				break;
 				
 			case CLOUDCOVER:
 				if (dp.getMean() >= WeatherConstant.CLOUDCOVER_LOWER_LIMIT && dp.getMean() < WeatherConstant.CLOUDCOVER_UPPER_LIMIT) {
-	                ai.setCloudCover(dp);
-	                ai.setLastUpdateTime(System.currentTimeMillis());
+	                return ai.withCloudCover(dp, System.currentTimeMillis());
 	            }
 				break;
 				
 			case PRECIPITATION:
 				if (dp.getMean() >= WeatherConstant.PRECIPITATION_LOWER_LIMIT && dp.getMean() < WeatherConstant.PRECIPITATION_UPPER_LIMIT) {
-	                ai.setPrecipitation(dp);
-	                ai.setLastUpdateTime(System.currentTimeMillis());
+	                return ai.withPrecipitation(dp, System.currentTimeMillis());
 	            }
 				break;
 				
@@ -330,7 +851,7 @@ public enum WeatherService {
 				throw new WeatherException("couldn't update atmospheric data");
 		}
         
-        
+        return ai;
     }
 
     /**
@@ -346,12 +867,10 @@ public enum WeatherService {
     public AirportData addAirport(String iataCode, double latitude, double longitude) throws WeatherException {
         AirportData ad = new AirportData();
         try {
-			airportData.add(ad);
-			AtmosphericInformation ai = new AtmosphericInformation();
-			atmosphericInformation.add(ai);
 			ad.setIata(iataCode);
 			ad.setLatitude(latitude);
-			ad.setLatitude(longitude);
+			ad.setLongitude(longitude);
+			airports.add(ad);
 		} catch (Exception e) {
 			throw new WeatherException("Exception while adding the Airport data");
 		}
@@ -367,10 +886,52 @@ public enum WeatherService {
      *
      */
     public boolean deleteAirport(String iataCode) {
-        final AirportData airport = WeatherService.INSTANCE.findAirportData(iataCode);
-        if (airport == null) {
-            return false;
+        AirportSlot slot;
+        Lock lock;
+        do {
+            slot = airports.find(iataCode);
+            if (slot == null) {
+                return false;
+            }
+            lock = journalLock(slot).writeLock();
+            lock.lock();
+            if (airports.find(iataCode) == slot) {
+                break;
+            }
+            // deleted and added again meanwhile
+            lock.unlock();
+        } while (true);
+        try {
+            if (airports.remove(iataCode) == null) {
+                return false;
+            }
+            WeatherJournal log = journal;
+            if (log != null) {
+                try {
+                    log.deleted(iataCode);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "airport deletion not logged: " + iataCode, e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        freshness.removed(slot.getAtmosphericInformation().getLastUpdateTime());
+        history.removed(slot.getId());
+        rollups.removed(slot.getId());
+        requestStats.removed(slot);
+        return true;
+    }
+
+    private ReadWriteLock journalLock(AirportSlot slot) {
+        return journalLocks[slot.getId() & (journalLocks.length - 1)];
+    }
+
+    private static ReadWriteLock[] newJournalLocks() {
+        ReadWriteLock[] locks = new ReadWriteLock[WeatherConstant.JOURNAL_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
         }
-        return airportData.remove(airport);
+        return locks;
     }
 }
@@ -0,0 +1,306 @@
+package com.crossover.trial.weather.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.crossover.trial.weather.model.AtmosphericInformation;
+
+/**
+ * Push subscriptions to the weather of a set of airports, typically the airports within a radius.
+ *
+ * Subscriptions are indexed by airport slot, a published snapshot only visits the subscriptions of its own
+ * airport. Delivery runs on a small sender pool so the ingest path never waits for a client: every subscription
+ * keeps at most one pending snapshot per airport, a newer snapshot replaces an undelivered one, and only one
+ * sender drains a subscription at a time. Snapshots are compared by version, a late older snapshot never replaces
+ * a newer pending one nor follows a newer one already sent. A slow client therefore receives the latest weather of every airport
+ * less often instead of buffering every update.
+ *
+ * The airports of a subscription are fixed when it is opened, airports added later are not included.
+ */
+public class WeatherSubscriptions {
+
+    public final static Logger LOGGER = Logger.getLogger(WeatherSubscriptions.class.getName());
+
+    /** receives the snapshots of a subscription, called by one sender thread at a time */
+    public interface Sink {
+
+        /**
+         * @param slot the airport
+         * @param ai its latest snapshot
+         * @throws IOException if the client is gone, the subscription is closed
+         */
+        void send(AirportSlot slot, AtmosphericInformation ai) throws IOException;
+
+        /**
+         * Called when nothing was sent for a while, so that a disconnected client is noticed
+         *
+         * @throws IOException if the client is gone, the subscription is closed
+         */
+        void keepAlive() throws IOException;
+
+        /** called once when the subscription is closed */
+        void closed();
+    }
+
+    /** subscriptions per airport slot, replaced on every change */
+    private final ConcurrentHashMap<Integer, Subscription[]> bySlot = new ConcurrentHashMap<Integer, Subscription[]>();
+
+    /** every open subscription */
+    private final Map<Subscription, Boolean> open = new ConcurrentHashMap<Subscription, Boolean>();
+
+    private final AirportRegistry airports;
+
+    private final ExecutorService senders;
+
+    private final ScheduledExecutorService keepAlives;
+
+    /** snapshots replaced before they were delivered */
+    private final LongAdder coalesced = new LongAdder();
+
+    /** snapshots delivered */
+    private final LongAdder delivered = new LongAdder();
+
+    /**
+     * @param airports the registry the slots belong to
+     * @param senderThreads threads delivering snapshots
+     * @param keepAliveMillis interval of keep alive calls to every subscription
+     */
+    public WeatherSubscriptions(AirportRegistry airports, int senderThreads, long keepAliveMillis) {
+        this.airports = airports;
+        AtomicInteger threads = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread t = new Thread(r, "weather-stream-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.keepAlives = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weather-stream-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+        keepAlives.scheduleWithFixedDelay(this::keepAlive, keepAliveMillis, keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A subscription to the weather of a fixed set of airports
+     */
+    public final class Subscription implements Closeable {
+
+        private final int[] slots;
+
+        private final Sink sink;
+
+        /** latest undelivered snapshot per slot */
+        private final ConcurrentHashMap<Integer, AtmosphericInformation> pending = new ConcurrentHashMap<Integer, AtmosphericInformation>();
+
+        /** version of the last snapshot sent per slot */
+        private final ConcurrentHashMap<Integer, Long> sentVersions = new ConcurrentHashMap<Integer, Long>();
+
+        /** set while a sender drains the subscription or is about to */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /** set when the keep alive interval passed without a delivery */
+        private volatile boolean idle;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscription(int[] slots, Sink sink) {
+            this.slots = slots;
+            this.sink = sink;
+        }
+
+        /** the airport slots of the subscription */
+        public int[] getSlots() {
+            return slots.clone();
+        }
+
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        void offer(int slot, AtmosphericInformation ai) {
+            if (!isNewer(slot, ai)) {
+                return;
+            }
+            pending.merge(slot, ai, (a, b) -> {
+                coalesced.increment();
+                return b.getVersion() > a.getVersion() ? b : a;
+            });
+            schedule();
+        }
+
+        /** @return whether the snapshot is newer than the last one sent for the slot */
+        private boolean isNewer(int slot, AtmosphericInformation ai) {
+            Long sentVersion = sentVersions.get(slot);
+            return sentVersion == null || ai.getVersion() > sentVersion;
+        }
+
+        void schedule() {
+            if (!closed.get() && scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RuntimeException e) {
+                    // the pool is shut down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                do {
+                    boolean sent = false;
+                    Iterator<Map.Entry<Integer, AtmosphericInformation>> it = pending.entrySet().iterator();
+                    while (it.hasNext() && !closed.get()) {
+                        Map.Entry<Integer, AtmosphericInformation> entry = it.next();
+                        AtmosphericInformation ai = entry.getValue();
+                        if (!pending.remove(entry.getKey(), ai)) {
+                            // replaced meanwhile, the newer snapshot is sent on the next pass
+                            continue;
+                        }
+                        if (!isNewer(entry.getKey(), ai)) {
+                            // offered while a newer snapshot was being sent
+                            continue;
+                        }
+                        AirportSlot slot = airports.get(entry.getKey());
+                        if (slot != null && slot.isRegistered()) {
+                            sink.send(slot, ai);
+                            sentVersions.put(entry.getKey(), ai.getVersion());
+                            delivered.increment();
+                            sent = true;
+                        }
+                    }
+                    if (idle && !sent && !closed.get()) {
+                        sink.keepAlive();
+                    }
+                    idle = false;
+                    scheduled.set(false);
+                } while ((!pending.isEmpty() || idle) && !closed.get() && scheduled.compareAndSet(false, true));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "weather subscription closed", e);
+                scheduled.set(false);
+                close();
+            }
+        }
+
+        /**
+         * Stop the subscription, pending snapshots are dropped
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            for (int slot : slots) {
+                bySlot.computeIfPresent(slot, (key, subscriptions) -> without(subscriptions, this));
+            }
+            open.remove(this);
+            pending.clear();
+            sink.closed();
+        }
+    }
+
+    /**
+     * Open a subscription, the current weather of every airport with data is delivered first
+     *
+     * @param slots the airport slots to follow
+     * @param sink receives the snapshots
+     * @return the subscription, to be closed when the client goes away
+     */
+    public Subscription subscribe(int[] slots, Sink sink) {
+        Subscription subscription = new Subscription(slots.clone(), sink);
+        open.put(subscription, Boolean.TRUE);
+        for (int slot : subscription.slots) {
+            bySlot.merge(slot, new Subscription[] { subscription }, WeatherSubscriptions::with);
+        }
+        for (int slot : subscription.slots) {
+            AirportSlot airport = airports.get(slot);
+            if (airport != null && airport.getAtmosphericInformation().getVersion() > 0) {
+                subscription.pending.merge(slot, airport.getAtmosphericInformation(),
+                        (a, b) -> b.getVersion() > a.getVersion() ? b : a);
+            }
+        }
+        // an empty first delivery starts the stream even without weather
+        subscription.idle = true;
+        subscription.schedule();
+        return subscription;
+    }
+
+    /**
+     * Hand a newly published snapshot to the subscriptions of its airport
+     *
+     * @param slot the airport
+     * @param ai the published snapshot
+     */
+    public void published(AirportSlot slot, AtmosphericInformation ai) {
+        Subscription[] subscriptions = bySlot.get(slot.getId());
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(slot.getId(), ai);
+        }
+    }
+
+    private void keepAlive() {
+        for (Subscription subscription : open.keySet()) {
+            subscription.idle = true;
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Close every subscription, used when the slot ids start over
+     */
+    public void clear() {
+        for (Subscription subscription : open.keySet()) {
+            subscription.close();
+        }
+    }
+
+    /** number of open subscriptions */
+    public int count() {
+        return open.size();
+    }
+
+    /** snapshots replaced by a newer one before they were delivered */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /** snapshots delivered */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    private static Subscription[] with(Subscription[] subscriptions, Subscription[] added) {
+        Subscription[] copy = Arrays.copyOf(subscriptions, subscriptions.length + added.length);
+        System.arraycopy(added, 0, copy, subscriptions.length, added.length);
+        return copy;
+    }
+
+    /** @return the array without the subscription, null if it is empty then so the slot entry is removed */
+    private static Subscription[] without(Subscription[] subscriptions, Subscription removed) {
+        int n = 0;
+        Subscription[] copy = new Subscription[subscriptions.length];
+        for (Subscription subscription : subscriptions) {
+            if (subscription != removed) {
+                copy[n++] = subscription;
+            }
+        }
+        return n == 0 ? null : Arrays.copyOf(copy, n);
+    }
+}
@@ -0,0 +1,309 @@
+package com.crossover.trial.weather.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.crossover.trial.weather.exception.WeatherException;
+
+/**
+ * Streaming parser for the airports.dat format, reading straight from a (memory mapped) byte buffer.
+ *
+ * Rows are comma separated, a field may be enclosed in double quotes and then contain commas, line breaks and
+ * doubled quotes. Only the columns the service needs are decoded: the IATA and ICAO codes become Strings, latitude,
+ * longitude, altitude and timezone are parsed from the bytes without creating intermediate Strings. Rows whose
+ * IATA code is not 3 characters long are skipped, like the Airport model does.
+ */
+public final class AirportDatParser {
+
+    /** receives every airport row with an IATA code */
+    @FunctionalInterface
+    public interface AirportHandler {
+        /**
+         * @param iata the 3 letter IATA code
+         * @param icao the 4 letter ICAO code or null if not assigned
+         * @param latitude in degrees
+         * @param longitude in degrees
+         * @param altitude in feet
+         * @param timezone hours offset from UTC, NaN if unknown
+         */
+        void airport(String iata, String icao, double latitude, double longitude, double altitude, double timezone);
+    }
+
+    private static final int COL_IATA = 4;
+    private static final int COL_ICAO = 5;
+    private static final int COL_LATITUDE = 6;
+    private static final int COL_LONGITUDE = 7;
+    private static final int COL_ALTITUDE = 8;
+    private static final int COL_TIMEZONE = 9;
+    /** the columns of a complete row */
+    private static final int COLUMNS = 11;
+
+    /** powers of ten that are exact doubles, for the fast decimal path */
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private AirportDatParser() {
+    }
+
+    /**
+     * Parse a file through a read only memory mapping
+     *
+     * @return the number of airports passed to the handler
+     */
+    public static int parse(Path file, AirportHandler handler) throws IOException, WeatherException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return parse(channel, handler);
+        }
+    }
+
+    /**
+     * Parse a stream, a file stream is memory mapped, anything else is read into one buffer first
+     *
+     * @return the number of airports passed to the handler
+     */
+    public static int parse(InputStream in, AirportHandler handler) throws IOException, WeatherException {
+        if (in instanceof FileInputStream) {
+            return parse(((FileInputStream) in).getChannel(), handler);
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream(64 * 1024);
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            content.write(chunk, 0, n);
+        }
+        return parse(ByteBuffer.wrap(content.toByteArray()), handler);
+    }
+
+    private static int parse(FileChannel channel, AirportHandler handler) throws IOException, WeatherException {
+        long position = channel.position();
+        long size = channel.size() - position;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("airports file too large: " + size + " bytes");
+        }
+        return parse(channel.map(FileChannel.MapMode.READ_ONLY, position, size), handler);
+    }
+
+    /**
+     * Parse the remaining bytes of the buffer, the buffer position is not changed
+     *
+     * @return the number of airports passed to the handler
+     * @throws WeatherException if a row is incomplete or a coordinate is not a number
+     */
+    public static int parse(ByteBuffer buf, AirportHandler handler) throws WeatherException {
+        // field boundaries of the current row, start inclusive and end exclusive, quotes excluded
+        int[] start = new int[COLUMNS];
+        int[] end = new int[COLUMNS];
+        boolean[] escaped = new boolean[COLUMNS];
+        int limit = buf.limit();
+        int pos = buf.position();
+        int line = 1;
+        int airports = 0;
+
+        while (pos < limit) {
+            int rowLine = line;
+            int col = 0;
+            boolean blank = true;
+            // one iteration per field
+            while (true) {
+                boolean quoted = pos < limit && buf.get(pos) == '"';
+                boolean doubled = false;
+                int fieldStart;
+                int fieldEnd;
+                if (quoted) {
+                    fieldStart = ++pos;
+                    while (true) {
+                        if (pos >= limit) {
+                            throw invalid(rowLine, "unterminated quote");
+                        }
+                        byte b = buf.get(pos);
+                        if (b == '"') {
+                            if (pos + 1 < limit && buf.get(pos + 1) == '"') {
+                                doubled = true;
+                                pos += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        if (b == '\n') {
+                            line++;
+                        }
+                        pos++;
+                    }
+                    fieldEnd = pos++;
+                    blank = false;
+                } else {
+                    fieldStart = pos;
+                    while (pos < limit) {
+                        byte b = buf.get(pos);
+                        if (b == ',' || b == '\n' || b == '\r') {
+                            break;
+                        }
+                        pos++;
+                    }
+                    fieldEnd = pos;
+                    if (fieldEnd > fieldStart) {
+                        blank = false;
+                    }
+                }
+                if (col < COLUMNS) {
+                    start[col] = fieldStart;
+                    end[col] = fieldEnd;
+                    escaped[col] = doubled;
+                }
+                col++;
+
+                if (pos < limit && buf.get(pos) == ',') {
+                    pos++;
+                    blank = false;
+                    continue;
+                }
+                // skip anything between a closing quote and the next separator
+                while (pos < limit && buf.get(pos) != ',' && buf.get(pos) != '\n' && buf.get(pos) != '\r') {
+                    pos++;
+                }
+                if (pos < limit && buf.get(pos) == ',') {
+                    pos++;
+                    continue;
+                }
+                break;
+            }
+            // end of row: \n, \r\n, \r or end of input
+            if (pos < limit && buf.get(pos) == '\r') {
+                pos++;
+            }
+            if (pos < limit && buf.get(pos) == '\n') {
+                pos++;
+            }
+            line++;
+
+            if (blank && col == 1) {
+                continue;
+            }
+            if (col < COLUMNS) {
+                throw invalid(rowLine, "expected " + COLUMNS + " columns but found " + col);
+            }
+            if (end[COL_IATA] - start[COL_IATA] != 3 || escaped[COL_IATA]) {
+                continue;
+            }
+            double latitude = parseDouble(buf, start[COL_LATITUDE], end[COL_LATITUDE], rowLine);
+            double longitude = parseDouble(buf, start[COL_LONGITUDE], end[COL_LONGITUDE], rowLine);
+            double altitude = parseDouble(buf, start[COL_ALTITUDE], end[COL_ALTITUDE], rowLine);
+            // the timezone is \N for some airports, that is not worth rejecting the file
+            double timezone = isNumber(buf, start[COL_TIMEZONE], end[COL_TIMEZONE])
+                    ? parseDouble(buf, start[COL_TIMEZONE], end[COL_TIMEZONE], rowLine) : Double.NaN;
+            String icao = end[COL_ICAO] - start[COL_ICAO] == 4 && !escaped[COL_ICAO] ? ascii(buf, start[COL_ICAO], end[COL_ICAO]) : null;
+            handler.airport(ascii(buf, start[COL_IATA], end[COL_IATA]), icao, latitude, longitude, altitude, timezone);
+            airports++;
+        }
+        return airports;
+    }
+
+    /**
+     * Parse a decimal number. Numbers with up to 15 significant digits and a small exponent, which covers every
+     * coordinate in airports.dat, are converted exactly with one multiplication or division; anything else goes
+     * through Double.parseDouble.
+     */
+    static double parseDouble(ByteBuffer buf, int from, int to, int line) throws WeatherException {
+        int pos = from;
+        while (pos < to && buf.get(pos) == ' ') {
+            pos++;
+        }
+        while (to > pos && buf.get(to - 1) == ' ') {
+            to--;
+        }
+        if (pos == to) {
+            throw invalid(line, "missing number");
+        }
+        boolean negative = false;
+        byte b = buf.get(pos);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; pos < to; pos++) {
+            b = buf.get(pos);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros are not significant
+                    if (seenPoint) {
+                        scale++;
+                    }
+                    continue;
+                }
+                if (digits == 15) {
+                    return slowParse(buf, from, to, line);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    scale++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                // exponents, NaN and garbage
+                return slowParse(buf, from, to, line);
+            }
+        }
+        if (!seenDigit) {
+            throw invalid(line, "not a number: " + ascii(buf, from, to));
+        }
+        if (scale >= POW10.length) {
+            return slowParse(buf, from, to, line);
+        }
+        double value = mantissa / POW10[scale];
+        return negative ? -value : value;
+    }
+
+    /** a cheap check for an optional column: an optional sign followed by a digit or a point */
+    private static boolean isNumber(ByteBuffer buf, int from, int to) {
+        if (from < to && (buf.get(from) == '-' || buf.get(from) == '+')) {
+            from++;
+        }
+        if (from == to) {
+            return false;
+        }
+        byte b = buf.get(from);
+        return (b >= '0' && b <= '9') || b == '.';
+    }
+
+    private static double slowParse(ByteBuffer buf, int from, int to, int line) throws WeatherException {
+        String text = ascii(buf, from, to);
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw invalid(line, "not a number: " + text);
+        }
+    }
+
+    private static String ascii(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static WeatherException invalid(int line, String message) {
+        return new WeatherException("Invalid airport data on line " + line + ": " + message);
+    }
+}
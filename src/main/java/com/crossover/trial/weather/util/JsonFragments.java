@@ -0,0 +1,29 @@
+package com.crossover.trial.weather.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serializes response objects to JSON bytes ahead of the response, with the same default Jackson mapping the
+ * JAX-RS runtime uses, so a cached fragment is byte for byte what Jersey would have written.
+ */
+public final class JsonFragments {
+
+    /** thread safe once configured */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JsonFragments() {
+    }
+
+    /**
+     * @param value the object to serialize
+     * @return its JSON as UTF-8
+     */
+    public static byte[] toJson(Object value) {
+        try {
+            return MAPPER.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("can not serialize " + value.getClass().getName(), e);
+        }
+    }
+}
@@ -14,5 +14,59 @@ public final class WeatherConstant {
 	public static final double CLOUDCOVER_UPPER_LIMIT = 100;
 	public static final double PRECIPITATION_LOWER_LIMIT = 0;
 	public static final double PRECIPITATION_UPPER_LIMIT = 100;
+	
+	//spatial index
+	public static final double GRID_CELL_DEGREES = 1;
+	// above this radius in KM the grid covers so many cells that a plain scan over all coordinates is cheaper
+	public static final double FULL_SCAN_RADIUS = 2500;
+	
+	//request stats
+	public static final int RADIUS_BUCKETS = 100;
+	public static final double RADIUS_BUCKET_WIDTH = 10;
+	// only airports updated within this window count towards the datasize
+	public static final long DATA_FRESHNESS_MILLIS = 86400000;
+	
+	//neighbour lists
+	// the neighbour radius covers this share of the recorded radius queries
+	public static final double NEIGHBOUR_RADIUS_COVERAGE = 0.95;
+	// radius queries recorded before the neighbour radius is derived from them
+	public static final long NEIGHBOUR_MIN_QUERIES = 1000;
+	// on average one in this many queries checks whether the neighbour radius is still right
+	public static final int NEIGHBOUR_TUNE_INTERVAL = 1024;
+	// upper bound for the entries of all neighbour lists together, 12 bytes each
+	public static final long NEIGHBOUR_MAX_ENTRIES = 20000000;
+	// airports sampled to estimate the size of the neighbour lists for a radius
+	public static final int NEIGHBOUR_SAMPLES = 64;
+	// builds of the neighbour lists without the registry lock lost to concurrent changes before one runs under the lock
+	public static final int NEIGHBOUR_BUILD_ATTEMPTS = 3;
+	
+	//radius query cache
+	public static final int RADIUS_CACHE_ENTRIES = 4096;
+	public static final int RADIUS_CACHE_STRIPES = 16;
+	
+	//weather streams
+	public static final int STREAM_SENDER_THREADS = 4;
+	// a stream without updates for this long gets a comment line, to notice clients that went away
+	public static final long STREAM_KEEPALIVE_MILLIS = 15000;
+	
+	//weather history
+	// data points kept per airport and point type, a day of reports every five minutes
+	public static final int HISTORY_SAMPLES = 288;
+	// a history starts with room for this many data points and doubles up to HISTORY_SAMPLES
+	public static final int HISTORY_INITIAL_SAMPLES = 8;
+	
+	//weather rollups
+	// buckets kept per airport and point type of each resolution: an hour of minutes, two days of hours and a month of days
+	public static final int ROLLUP_MINUTES = 60;
+	public static final int ROLLUP_HOURS = 48;
+	public static final int ROLLUP_DAYS = 31;
+	// a rollup starts with room for this many buckets per resolution and doubles up to the ones above
+	public static final int ROLLUP_INITIAL_BUCKETS = 4;
+	
+	//weather journal
+	public static final long JOURNAL_SEGMENT_BYTES = 64 * 1024 * 1024;
+	public static final long JOURNAL_CHECKPOINT_MILLIS = 300000;
+	// locks ordering the records of an airport before its deletion, by slot id
+	public static final int JOURNAL_LOCK_STRIPES = 64;
 
 }
@@ -0,0 +1,417 @@
+package com.crossover.trial.weather.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.model.DataPointUpdate;
+import com.google.gson.Gson;
+
+/**
+ * Deterministic synthetic airports and weather for benchmarks and scale tests, the same seed always produces the
+ * same data on any JVM.
+ *
+ * Airports are placed like real ones: most of them around a few thousand cities of Zipf distributed size, spread
+ * over the continents roughly in proportion to their share of the world's airports, the rest scattered over the
+ * continents. The catalogue of a size is a prefix of every larger one. The first {@link #IATA_CODES} airports get
+ * the 3 letter codes AAA to ZZZ, airports beyond get longer codes, which the registry accepts but airports.dat
+ * cannot carry: {@link #writeAirportsDat} writes them without an IATA code, like the many real airfields that have
+ * none, and an upload skips them.
+ *
+ * Weather updates follow a random walk per airport and point type within the accepted range of the type, starting
+ * from a plausible value for the latitude.
+ */
+public final class WeatherDataGenerator {
+
+    /** the number of distinct 3 letter codes */
+    public static final int IATA_CODES = 26 * 26 * 26;
+
+    /** south, north, west, east bounds and share of the airports of every continent */
+    private static final double[][] REGIONS = {
+        { 15, 70, -168, -52, 0.30 },
+        { -55, 12, -81, -35, 0.10 },
+        { 36, 70, -10, 40, 0.22 },
+        { -35, 35, -17, 50, 0.08 },
+        { 5, 55, 60, 145, 0.20 },
+        { -45, -10, 113, 178, 0.10 },
+    };
+
+    private static final String[] REGION_NAMES = { "North America", "South America", "Europe", "Africa", "Asia", "Oceania" };
+
+    /** daylight saving time column of airports.dat */
+    private static final String[] REGION_DST = { "A", "S", "E", "U", "N", "O" };
+
+    private static final int CITIES = 4096;
+
+    /** city sizes fall off with the square root of their rank, the largest city has about 1% of the airports */
+    private static final double CITY_SIZE_EXPONENT = 0.5;
+
+    /** share of the airports around a city */
+    private static final double CITY_SHARE = 0.8;
+
+    private static final double KM_PER_DEGREE = 111.2;
+
+    private final long seed;
+
+    private final double[] cityLatitude = new double[CITIES];
+
+    private final double[] cityLongitude = new double[CITIES];
+
+    private final double[] citySpread = new double[CITIES];
+
+    private final int[] cityRegion = new int[CITIES];
+
+    /** cumulative city weights */
+    private final double[] cityWeight = new double[CITIES];
+
+    /** one generated airport, with the columns airports.dat has beyond AirportData */
+    private static final class Row {
+        int region;
+        int city;
+        double latitude;
+        double longitude;
+        int altitude;
+    }
+
+    /**
+     * @param seed the seed of the catalogue and the weather
+     */
+    public WeatherDataGenerator(long seed) {
+        this.seed = seed;
+        Random random = new Random(seed);
+        double total = 0;
+        for (int i = 0; i < CITIES; i++) {
+            int region = region(random);
+            cityRegion[i] = region;
+            cityLatitude[i] = uniform(random, REGIONS[region][0], REGIONS[region][1]);
+            cityLongitude[i] = uniform(random, REGIONS[region][2], REGIONS[region][3]);
+            citySpread[i] = uniform(random, 15, 150);
+            total += Math.pow(i + 1, -CITY_SIZE_EXPONENT);
+            cityWeight[i] = total;
+        }
+    }
+
+    /**
+     * @param count number of airports
+     * @return the first count airports of the catalogue
+     */
+    public List<AirportData> airports(int count) {
+        List<AirportData> airports = new ArrayList<AirportData>(count);
+        Random random = new Random(seed * 31 + 1);
+        Row row = new Row();
+        for (int i = 0; i < count; i++) {
+            next(random, row);
+            airports.add(new AirportData(code(i), row.latitude, row.longitude));
+        }
+        return airports;
+    }
+
+    /**
+     * Write the first rows airports of the catalogue in the airports.dat format, the airports beyond the 3 letter
+     * codes without an IATA code
+     *
+     * @param file the file to write
+     * @param rows number of rows
+     * @return the number of rows with an IATA code, the airports an upload of the file registers
+     */
+    public int writeAirportsDat(Path file, int rows) throws IOException {
+        Random random = new Random(seed * 31 + 1);
+        Row row = new Row();
+        StringBuilder line = new StringBuilder(160);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                next(random, row);
+                line.setLength(0);
+                line.append(i + 1).append(',');
+                // every tenth name needs quoting of a comma or a quote, as in the real file
+                if (i % 20 == 7) {
+                    line.append("\"Airport ").append(i + 1).append(", Terminal ").append(row.city % 5 + 1).append("\",");
+                } else if (i % 20 == 17) {
+                    line.append("\"Airport ").append(i + 1).append(" \"\"Field\"\"\",");
+                } else {
+                    line.append("\"Airport ").append(i + 1).append("\",");
+                }
+                line.append("\"City ").append(row.city + 1).append("\",\"").append(REGION_NAMES[row.region]).append("\",");
+                if (i < IATA_CODES) {
+                    line.append('"').append(code(i)).append("\",");
+                } else {
+                    line.append("\\N,");
+                }
+                if (i < 26 * IATA_CODES) {
+                    line.append('"').append(letters(i, 4)).append("\",");
+                } else {
+                    line.append("\\N,");
+                }
+                appendDecimal(line, row.latitude).append(',');
+                appendDecimal(line, row.longitude).append(',');
+                line.append(row.altitude).append(',');
+                line.append(Math.round(row.longitude / 15)).append(",\"").append(REGION_DST[row.region]).append("\"\n");
+                out.append(line);
+            }
+        }
+        return Math.min(rows, IATA_CODES);
+    }
+
+    /**
+     * An endless stream of weather updates of the given airports, all point types alike
+     *
+     * @param airports the airports to report weather for
+     * @param stream number of the stream, streams of different numbers are independent
+     * @return the updates, the same for the same seed, airports and stream number
+     */
+    public Iterator<DataPointUpdate> updates(List<AirportData> airports, int stream) {
+        return new UpdateStream(airports, new Random(seed * 31 + stream + 2));
+    }
+
+    /**
+     * One update of every airport, so that every airport has weather before a benchmark starts
+     *
+     * @param airports the airports
+     * @param type the point type of the updates
+     * @return an update per airport, in the order of the airports
+     */
+    public List<DataPointUpdate> initialUpdates(List<AirportData> airports, DataPointType type) {
+        UpdateStream stream = new UpdateStream(airports, new Random(seed * 31));
+        List<DataPointUpdate> updates = new ArrayList<DataPointUpdate>(airports.size());
+        for (int i = 0; i < airports.size(); i++) {
+            updates.add(stream.update(i, type));
+        }
+        return updates;
+    }
+
+    /**
+     * Write updates as batches for POST /collect/weather, one JSON array per line
+     *
+     * @param file the file to write
+     * @param updates the updates
+     * @param count number of updates
+     * @param batch updates per line
+     */
+    public static void writeUpdates(Path file, Iterator<DataPointUpdate> updates, int count, int batch) throws IOException {
+        Gson gson = new Gson();
+        List<DataPointUpdate> lines = new ArrayList<DataPointUpdate>(batch);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                lines.add(updates.next());
+                if (lines.size() == batch || i == count - 1) {
+                    out.write(gson.toJson(lines));
+                    out.newLine();
+                    lines.clear();
+                }
+            }
+        }
+    }
+
+    private final class UpdateStream implements Iterator<DataPointUpdate> {
+
+        private final List<AirportData> airports;
+
+        private final Random random;
+
+        /** current value per airport and point type, NaN until first used */
+        private final double[] values;
+
+        private final DataPointType[] types = DataPointType.values();
+
+        UpdateStream(List<AirportData> airports, Random random) {
+            this.airports = airports;
+            this.random = random;
+            this.values = new double[airports.size() * types.length];
+            Arrays.fill(values, Double.NaN);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public DataPointUpdate next() {
+            int airport = random.nextInt(airports.size());
+            return update(airport, types[random.nextInt(types.length)]);
+        }
+
+        DataPointUpdate update(int airport, DataPointType type) {
+            int at = airport * types.length + type.ordinal();
+            double value = values[at];
+            if (Double.isNaN(value)) {
+                value = initial(type, airports.get(airport).getLatitude());
+            }
+            value = walk(type, value);
+            values[at] = value;
+            double mean = round(type == DataPointType.PRECIPITATION ? Math.max(0, value) : value);
+            double spread = round(Math.abs(random.nextGaussian()) * step(type));
+            DataPoint dp = new DataPoint(round(mean - spread), round(mean + random.nextGaussian() * spread / 4), mean,
+                    round(mean + spread), 1 + random.nextInt(60));
+            return new DataPointUpdate(airports.get(airport).getIata(), type.name().toLowerCase(), dp);
+        }
+
+        private double initial(DataPointType type, double latitude) {
+            switch (type) {
+                case WIND:
+                    return -10 * Math.log(1 - random.nextDouble());
+                case TEMPERATURE:
+                    return 30 - 0.6 * Math.abs(latitude) + 5 * random.nextGaussian();
+                case HUMIDTY:
+                    return uniform(random, 40, 90);
+                case PRESSURE:
+                    return uniform(random, 700, 780);
+                case CLOUDCOVER:
+                    return uniform(random, 0, 100);
+                default:
+                    return uniform(random, -20, 10);
+            }
+        }
+
+        private double walk(DataPointType type, double value) {
+            double next = value + random.nextGaussian() * step(type);
+            switch (type) {
+                case WIND:
+                    return clamp(next, WeatherConstant.WIND_LOWER_LIMIT, 150);
+                case TEMPERATURE:
+                    return clamp(next, WeatherConstant.TEMPERATURE_LOWER_LIMIT, 60);
+                case HUMIDTY:
+                    return clamp(next, WeatherConstant.HUMIDTY_LOWER_LIMIT, WeatherConstant.HUMIDTY_UPPER_LIMIT);
+                case PRESSURE:
+                    return clamp(next, WeatherConstant.PRESSURE_LOWER_LIMIT, WeatherConstant.PRESSURE_UPPER_LIMIT);
+                case CLOUDCOVER:
+                    return clamp(next, WeatherConstant.CLOUDCOVER_LOWER_LIMIT, WeatherConstant.CLOUDCOVER_UPPER_LIMIT);
+                default:
+                    // below zero is dry weather, the walk takes a while to rain
+                    return clamp(next, -20, WeatherConstant.PRECIPITATION_UPPER_LIMIT);
+            }
+        }
+
+        private double step(DataPointType type) {
+            return type == DataPointType.PRESSURE || type == DataPointType.TEMPERATURE ? 1 : 3;
+        }
+    }
+
+    /** the next airport of the catalogue */
+    private void next(Random random, Row row) {
+        if (random.nextDouble() < CITY_SHARE) {
+            int city = Arrays.binarySearch(cityWeight, random.nextDouble() * cityWeight[CITIES - 1]);
+            city = Math.min(CITIES - 1, city < 0 ? -city - 1 : city);
+            double latitude = cityLatitude[city] + random.nextGaussian() * citySpread[city] / KM_PER_DEGREE;
+            row.latitude = Math.max(-89.9, Math.min(89.9, latitude));
+            double longitude = cityLongitude[city]
+                    + random.nextGaussian() * citySpread[city] / (KM_PER_DEGREE * Math.cos(Math.toRadians(row.latitude)));
+            row.longitude = ((longitude + 540) % 360) - 180;
+            row.region = cityRegion[city];
+            row.city = city;
+        } else {
+            row.region = region(random);
+            row.latitude = uniform(random, REGIONS[row.region][0], REGIONS[row.region][1]);
+            row.longitude = uniform(random, REGIONS[row.region][2], REGIONS[row.region][3]);
+            row.city = random.nextInt(CITIES);
+        }
+        row.altitude = (int) Math.round(-800 * Math.log(1 - random.nextDouble())) - 20;
+    }
+
+    private static int region(Random random) {
+        double r = random.nextDouble();
+        for (int i = 0; i < REGIONS.length - 1; i++) {
+            r -= REGIONS[i][4];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return REGIONS.length - 1;
+    }
+
+    /**
+     * @param i index of the airport in the catalogue
+     * @return AAA, AAB, ..., ZZZ for the first {@link #IATA_CODES} airports, four letters and more beyond
+     */
+    public static String code(int i) {
+        return letters(i, 3);
+    }
+
+    /** i in base 26 with the digits A to Z, at least length letters */
+    private static String letters(int i, int length) {
+        StringBuilder code = new StringBuilder();
+        int n = i;
+        do {
+            code.append((char) ('A' + n % 26));
+            n /= 26;
+        } while (n > 0 || code.length() < length);
+        return code.reverse().toString();
+    }
+
+    /** six decimals, as in airports.dat */
+    private static StringBuilder appendDecimal(StringBuilder line, double value) {
+        long micros = Math.round(value * 1e6);
+        if (micros < 0) {
+            line.append('-');
+            micros = -micros;
+        }
+        line.append(micros / 1000000).append('.');
+        String fraction = Long.toString(micros % 1000000);
+        for (int i = fraction.length(); i < 6; i++) {
+            line.append('0');
+        }
+        return line.append(fraction);
+    }
+
+    private static double uniform(Random random, double from, double to) {
+        return from + (to - from) * random.nextDouble();
+    }
+
+    /** within [from, to), also after rounding, the ranges the service accepts exclude the upper limit */
+    private static double clamp(double value, double from, double to) {
+        return Math.max(from, Math.min(to - 0.1, value));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    /**
+     * Write test data files, arguments are name=value:
+     * <pre>
+     * seed=1                 seed of the data
+     * airports=airports.dat  the catalogue to write
+     * rows=100000            rows of the catalogue
+     * updates=updates.json   the update batches to write, of the airports with an IATA code
+     * count=1000000          number of updates
+     * batch=100              updates per line
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        WeatherDataGenerator generator = new WeatherDataGenerator(Long.parseLong(arg(args, "seed", "1")));
+        int rows = Integer.parseInt(arg(args, "rows", "100000"));
+        String airports = arg(args, "airports", null);
+        if (airports != null) {
+            int registered = generator.writeAirportsDat(Paths.get(airports), rows);
+            System.out.println(String.format("wrote %d airports, %d with an IATA code, to %s", rows, registered, airports));
+        }
+        String updates = arg(args, "updates", null);
+        if (updates != null) {
+            int count = Integer.parseInt(arg(args, "count", "1000000"));
+            List<AirportData> catalogue = generator.airports(Math.min(rows, IATA_CODES));
+            writeUpdates(Paths.get(updates), generator.updates(catalogue, 0), count, Integer.parseInt(arg(args, "batch", "100")));
+            System.out.println(String.format("wrote %d updates of %d airports to %s", count, catalogue.size(), updates));
+        }
+    }
+
+    private static String arg(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return defaultValue;
+    }
+}
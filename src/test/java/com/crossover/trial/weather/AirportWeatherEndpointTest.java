@@ -1,16 +1,37 @@
 package com.crossover.trial.weather;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.ws.rs.core.Response;
 
+import org.glassfish.grizzly.http.server.HttpServer;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.AtmosphericInformation;
 import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.model.DataPointUpdate;
+import com.crossover.trial.weather.service.NeighbourList;
 import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.util.WeatherDataGenerator;
 import com.google.gson.Gson;
 
 public class AirportWeatherEndpointTest {
@@ -24,6 +45,9 @@ public class AirportWeatherEndpointTest {
 
     private DataPoint _dp;
 
+    @Rule
+    public TemporaryFolder _tmp = new TemporaryFolder();
+
 	@Before
 	public void setUp() throws Exception {
 
@@ -67,6 +91,24 @@ public class AirportWeatherEndpointTest {
 		
 	}
 	
+	@Test
+	public void testDeleteKeepsOtherAirports() throws Exception {
+		
+		assertEquals(200, _collect.deleteAirport("BOS").getStatus());
+		
+		assertEquals(404, _collect.getAirport("BOS").getStatus());
+		
+		assertEquals(200, _collect.getAirport("JFK").getStatus());
+		
+		assertEquals(201, _collect.addAirport("BOS", "42.364347", "-71.005181").getStatus());
+		
+		assertEquals(200, _collect.getAirport("BOS").getStatus());
+		
+		Set<String> retval = (Set<String>) _collect.getAirports().getEntity();
+		
+		assertEquals(10, retval.size());
+	}
+	
 	@Test
 	public void testAddAirport() throws Exception {
 		
@@ -82,6 +124,211 @@ public class AirportWeatherEndpointTest {
 	
 	
 	
+	@Test
+	public void testGetNearbyAcrossGridCells() throws Exception {
+		
+		_collect.updateWeather("LHR", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("LCY", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("STN", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("LPL", "wind", _gson.toJson(_dp));
+		
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("LHR", "100").getEntity();
+		assertEquals(3, ais.size());
+		
+		ais = (List<AtmosphericInformation>) _query.weather("LHR", "300").getEntity();
+		assertEquals(4, ais.size());
+	}
+	
+	@Test
+	public void testAddAirportsInBulk() throws Exception {
+		
+		String dat = "11,\"Chhatrapati Shivaji Intl\",\"Mumbai\",\"India\",\"BOM\",\"VABB\",19.088686,72.867919,39,5.5,\"N\"\n"
+				+ "12,\"Indira Gandhi Intl\",\"Delhi\",\"India\",\"DEL\",\"VIDP\",28.5665,77.103088,777,5.5,\"N\"\n";
+		
+		Response response = _collect.addAirports(new ByteArrayInputStream(dat.getBytes(StandardCharsets.UTF_8)));
+		
+		assertEquals(201, response.getStatus());
+		assertEquals(12, ((Set<String>) _collect.getAirports().getEntity()).size());
+		assertEquals(200, _collect.getAirport("DEL").getStatus());
+		
+		// a broken line rejects the whole file
+		response = _collect.addAirports(new ByteArrayInputStream((dat.replace("BOM", "BLR") + "13,broken\n").getBytes(StandardCharsets.UTF_8)));
+		
+		assertEquals(400, response.getStatus());
+		assertEquals(404, _collect.getAirport("BLR").getStatus());
+	}
+	
+	@Test
+	public void testNeighbourLists() throws Exception {
+		
+		_collect.updateWeather("LHR", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("LCY", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("STN", "wind", _gson.toJson(_dp));
+		
+		// too few queries to size the lists
+		assertEquals(0, WeatherService.INSTANCE.tuneNeighbourRadius(), 0);
+		for (int i = 0; i < 1000; i++) {
+			WeatherService.INSTANCE.updateRequestFrequency("LHR", 150.0);
+		}
+		assertEquals(160, WeatherService.INSTANCE.tuneNeighbourRadius(), 0);
+		
+		NeighbourList near = WeatherService.INSTANCE.getAirports().find("LHR").getNeighbours();
+		assertEquals("LHR", WeatherService.INSTANCE.getAirports().get(near.id(0)).getAirport().getIata());
+		for (int i = 1; i < near.size(); i++) {
+			assertTrue(near.distance(i - 1) <= near.distance(i));
+		}
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("LHR", "100").getEntity();
+		assertEquals(3, ais.size());
+		
+		// the lists of the neighbours follow additions and deletions
+		_collect.addAirport("LGW", "51.148056", "-0.190278");
+		_collect.updateWeather("LGW", "wind", _gson.toJson(_dp));
+		assertEquals(4, ((List<AtmosphericInformation>) _query.weather("LHR", "100").getEntity()).size());
+		assertEquals(4, ((List<AtmosphericInformation>) _query.weather("LGW", "100").getEntity()).size());
+		_collect.deleteAirport("LCY");
+		assertEquals(3, ((List<AtmosphericInformation>) _query.weather("LHR", "100").getEntity()).size());
+		assertEquals(3, ((List<AtmosphericInformation>) _query.weather("LGW", "100").getEntity()).size());
+		
+		// beyond the lists the spatial index answers
+		_collect.updateWeather("LPL", "wind", _gson.toJson(_dp));
+		assertEquals(4, ((List<AtmosphericInformation>) _query.weather("LHR", "300").getEntity()).size());
+	}
+	
+	@Test
+	public void testLoadSnapshot() throws Exception {
+		
+		Path dat = _tmp.newFile("airports.dat").toPath();
+		Files.copy(getClass().getClassLoader().getResourceAsStream("airports.dat"), dat, StandardCopyOption.REPLACE_EXISTING);
+		Path snapshot = _tmp.getRoot().toPath().resolve("airports.snapshot");
+		
+		assertEquals(10, WeatherService.INSTANCE.writeSnapshot(dat, snapshot));
+		WeatherService.INSTANCE.init();
+		assertEquals(10, WeatherService.INSTANCE.loadSnapshot(snapshot));
+		
+		assertEquals(10, ((Set<String>) _collect.getAirports().getEntity()).size());
+		AirportData lhr = (AirportData) _collect.getAirport("LHR").getEntity();
+		assertEquals(51.4775, lhr.getLatitude(), 0);
+		
+		_collect.updateWeather("LHR", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("LCY", "wind", _gson.toJson(_dp));
+		_collect.updateWeather("STN", "wind", _gson.toJson(_dp));
+		List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("LHR", "100").getEntity();
+		assertEquals(3, ais.size());
+	}
+
+	@Test
+	public void testLoadAirportsFile() throws Exception {
+
+		Path dat = _tmp.getRoot().toPath().resolve("configured.dat");
+		assertEquals(100, new WeatherDataGenerator(5).writeAirportsDat(dat, 100));
+		System.setProperty(WeatherServer.AIRPORTS_PROPERTY, dat.toString());
+		try {
+			WeatherServer.loadAirports();
+		} finally {
+			System.clearProperty(WeatherServer.AIRPORTS_PROPERTY);
+		}
+
+		// exactly the configured catalogue, none of the built in airports
+		assertEquals(100, WeatherService.INSTANCE.getAirports().count());
+		assertEquals(null, WeatherService.INSTANCE.findAirportData("BOS"));
+	}
+
+	@Test
+	public void testSyntheticData() throws Exception {
+		
+		WeatherDataGenerator generator = new WeatherDataGenerator(7);
+		Path dat = _tmp.getRoot().toPath().resolve("synthetic.dat");
+		assertEquals(WeatherDataGenerator.IATA_CODES, generator.writeAirportsDat(dat, 20000));
+		WeatherService.INSTANCE.init();
+		WeatherService.INSTANCE.getAirports().clear();
+		assertEquals(WeatherDataGenerator.IATA_CODES, WeatherService.INSTANCE.importAirports(dat));
+		
+		// the file and the in memory catalogue agree, every code beyond ZZZ is left out of the file
+		List<AirportData> airports = new WeatherDataGenerator(7).airports(20000);
+		for (int i = 0; i < 20000; i += 997) {
+			AirportData expected = airports.get(i);
+			AirportData loaded = WeatherService.INSTANCE.findAirportData(expected.getIata());
+			if (i < WeatherDataGenerator.IATA_CODES) {
+				assertEquals(expected.getLatitude(), loaded.getLatitude(), 1e-6);
+				assertEquals(expected.getLongitude(), loaded.getLongitude(), 1e-6);
+			} else {
+				assertEquals(null, loaded);
+			}
+		}
+		
+		// replayable and within the accepted range of every point type
+		Iterator<DataPointUpdate> updates = generator.updates(airports.subList(0, 1000), 3);
+		Iterator<DataPointUpdate> replay = new WeatherDataGenerator(7).updates(airports.subList(0, 1000), 3);
+		AtmosphericInformation empty = new AtmosphericInformation();
+		for (int i = 0; i < 5000; i++) {
+			DataPointUpdate update = updates.next();
+			assertEquals(_gson.toJson(update), _gson.toJson(replay.next()));
+			assertTrue(update.toString(), WeatherService.INSTANCE.updateAtmosphericInformation(empty, update.getPointType(), update.getDataPoint()) != empty);
+		}
+		List<DataPointUpdate> initial = generator.initialUpdates(airports.subList(0, 1000), DataPointType.TEMPERATURE);
+		for (WeatherException error : WeatherService.INSTANCE.addDataPoints(initial)) {
+			assertEquals(null, error);
+		}
+		assertEquals(1000, WeatherService.INSTANCE.getDataSize());
+	}
+	
+	@Test
+	public void testAsyncUpload() throws Exception {
+		
+		WeatherDataGenerator generator = new WeatherDataGenerator(11);
+		Path dat = _tmp.getRoot().toPath().resolve("async.dat");
+		generator.writeAirportsDat(dat, 100);
+		WeatherService.INSTANCE.init();
+		WeatherService.INSTANCE.getAirports().clear();
+		
+		// a collector pool without a queue answers most of the concurrent rows with 503, they are retried
+		HttpServer server = WeatherServer.createServer(URI.create("http://localhost:0/"));
+		EndpointExecutor.COLLECT.configure(1, 0);
+		try {
+			server.start();
+			String baseUri = "http://localhost:" + server.getListeners().iterator().next().getPort();
+			long rejected = EndpointExecutor.COLLECT.getRejected();
+			try (InputStream in = Files.newInputStream(dat)) {
+				assertEquals(0, new AirportLoader(baseUri, 4).uploadAsync(in, 8, 10));
+			}
+			assertTrue(EndpointExecutor.COLLECT.getRejected() > rejected);
+		} finally {
+			server.shutdownNow();
+			EndpointExecutor.COLLECT.configure(Runtime.getRuntime().availableProcessors(), 10000);
+		}
+		assertEquals(100, WeatherService.INSTANCE.getAirports().count());
+		for (AirportData expected : generator.airports(100)) {
+			AirportData loaded = WeatherService.INSTANCE.findAirportData(expected.getIata());
+			assertEquals(expected.getLatitude(), loaded.getLatitude(), 1e-6);
+			assertEquals(expected.getLongitude(), loaded.getLongitude(), 1e-6);
+		}
+		
+		// every row fails once its retries are used up when nothing listens
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		try (InputStream in = Files.newInputStream(dat)) {
+			assertEquals(100, new AirportLoader("http://localhost:" + port, 4).uploadAsync(in, 8, 1));
+		}
+	}
+	
+	@Test
+	public void testAddAirportsWithQuotedCommas() throws Exception {
+		
+		String dat = "14,\"Washington Dulles Intl, \"\"IAD\"\"\",\"Washington, DC\",\"United States\",\"IAD\",\"KIAD\",38.944533,-77.455811,313,-5,\"A\"\r\n"
+				+ "\r\n"
+				+ "15,\"No Code\",\"Nowhere\",\"Nowhere\",\"\",\"\",1,2,3,0,\"U\"\r\n";
+		
+		Response response = _collect.addAirports(new ByteArrayInputStream(dat.getBytes(StandardCharsets.UTF_8)));
+		
+		assertEquals(201, response.getStatus());
+		assertEquals(11, ((Set<String>) _collect.getAirports().getEntity()).size());
+		AirportData iad = (AirportData) _collect.getAirport("IAD").getEntity();
+		assertEquals(38.944533, iad.getLatitude(), 0);
+		assertEquals(-77.455811, iad.getLongitude(), 0);
+	}
+	
 	@Test
 	public void testDeleteAllAirport() throws Exception {
 		
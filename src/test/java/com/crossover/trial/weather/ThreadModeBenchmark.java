@@ -0,0 +1,127 @@
+package com.crossover.trial.weather;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import com.crossover.trial.weather.model.AirportData;
+import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.service.WeatherService;
+import com.google.gson.Gson;
+
+/**
+ * Compares the platform thread pool and the virtual thread mode of {@link EndpointExecutor} on the handler that
+ * blocks the most: collector updates acknowledged only after the weather journal forced them to disk. Many
+ * clients keep a fixed number of updates in flight (closed loop), each mode reports its throughput and latency.
+ *
+ * Not a unit test, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.crossover.trial.weather.ThreadModeBenchmark
+ * </pre>
+ * and optional arguments clients=1000 updates=100000 threads=(processors). The virtual thread run is skipped
+ * before JDK 21.
+ */
+public class ThreadModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = intArg(args, "clients", 1000);
+        int updates = intArg(args, "updates", 100000);
+        int threads = intArg(args, "threads", Runtime.getRuntime().availableProcessors());
+
+        WeatherService service = WeatherService.INSTANCE;
+        service.init();
+        List<AirportData> airports = service.getAirportData();
+        Path journal = Files.createTempDirectory("weather-journal");
+        service.openJournal(journal, true, Long.MAX_VALUE);
+        try {
+            System.out.println(format("%d clients, %d updates, synchronous journal in %s", clients, updates, journal));
+            EndpointExecutor.COLLECT.configure(threads, clients);
+            run("platform x" + threads, airports, clients, updates / 10);
+            run("platform x" + threads, airports, clients, updates);
+            try {
+                EndpointExecutor.COLLECT.configureVirtual(clients);
+            } catch (UnsupportedOperationException e) {
+                System.out.println(e.getMessage() + ", virtual threads skipped");
+                return;
+            }
+            run("virtual", airports, clients, updates / 10);
+            run("virtual", airports, clients, updates);
+        } finally {
+            service.closeJournal();
+            delete(journal);
+        }
+    }
+
+    /**
+     * Keep clients updates in flight until count updates are acknowledged
+     */
+    private static void run(String mode, List<AirportData> airports, int clients, int count) throws InterruptedException {
+        WeatherCollectorEndpoint collector = new RestWeatherCollectorEndpoint();
+        Gson gson = new Gson();
+        Semaphore inFlight = new Semaphore(clients);
+        CountDownLatch done = new CountDownLatch(count);
+        long[] latencies = new long[count];
+        AtomicInteger failed = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            inFlight.acquire();
+            int n = i;
+            String iata = airports.get(n % airports.size()).getIata();
+            String json = gson.toJson(new DataPoint.Builder().withMean(n).withMedian(n).withCount(1).build());
+            long submitted = System.nanoTime();
+            try {
+                EndpointExecutor.COLLECT.execute(() -> {
+                    if (collector.updateWeather(iata, "wind", json).getStatus() != 200) {
+                        failed.incrementAndGet();
+                    }
+                    latencies[n] = System.nanoTime() - submitted;
+                    inFlight.release();
+                    done.countDown();
+                });
+            } catch (RejectedExecutionException e) {
+                failed.incrementAndGet();
+                inFlight.release();
+                done.countDown();
+            }
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.println(format("%-14s %8d updates %10.0f updates/s  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms  failed %d",
+                mode, count, count * 1e9 / elapsed, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                latencies[count - 1] / 1e6, failed.get()));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return Integer.parseInt(arg.substring(name.length() + 1));
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -1,17 +1,56 @@
 package com.crossover.trial.weather;
 
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.model.AirportData;
 import com.crossover.trial.weather.model.AtmosphericInformation;
+import com.crossover.trial.weather.model.AtmosphericInformationList;
 import com.crossover.trial.weather.model.DataPoint;
+import com.crossover.trial.weather.model.DataPointType;
+import com.crossover.trial.weather.model.DataPointUpdate;
+import com.crossover.trial.weather.service.AirportSlot;
+import com.crossover.trial.weather.service.WeatherHistory;
+import com.crossover.trial.weather.service.WeatherRollups;
 import com.crossover.trial.weather.service.WeatherService;
+import com.crossover.trial.weather.service.WeatherSubscriptions;
+import com.crossover.trial.weather.util.WeatherConstant;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class WeatherEndpointTest {
 
@@ -22,6 +61,10 @@ public class WeatherEndpointTest {
     private Gson _gson = new Gson();
 
     private DataPoint _dp;
+
+    @Rule
+    public TemporaryFolder _tmp = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         WeatherService.INSTANCE.init();
@@ -36,13 +79,447 @@ public class WeatherEndpointTest {
         String ping = _query.ping();
         JsonElement pingResult = new JsonParser().parse(ping);
         assertEquals(1, pingResult.getAsJsonObject().get("datasize").getAsInt());
-        assertEquals(5, pingResult.getAsJsonObject().get("iata_freq").getAsJsonObject().entrySet().size());
+        // only setUp's query of BOS
+        assertEquals(1, pingResult.getAsJsonObject().get("iata_freq").getAsJsonObject().entrySet().size());
+    }
+
+    @Test
+    public void testPingDataSize() throws Exception {
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        JsonObject pingResult = new JsonParser().parse(_query.ping()).getAsJsonObject();
+        assertEquals(2, pingResult.get("datasize").getAsInt());
+
+        _update.deleteAirport("BOS");
+        pingResult = new JsonParser().parse(_query.ping()).getAsJsonObject();
+        assertEquals(1, pingResult.get("datasize").getAsInt());
+    }
+
+    @Test
+    public void testJournalReplay() throws Exception {
+        Path journal = _tmp.newFolder("journal").toPath();
+        DataPoint cloudCover = new DataPoint.Builder().withCount(4).withFirst(10).withMedian(60).withLast(100).withMean(50).build();
+        WeatherService.INSTANCE.openJournal(journal, true, 60000);
+        try {
+            _update.updateWeather("JFK", "cloudcover", _gson.toJson(cloudCover));
+            _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+            _update.updateWeather("EWR", "wind", _gson.toJson(_dp));
+            _update.deleteAirport("EWR");
+            // a reset would start the snapshot versions over behind the journal
+            try {
+                WeatherService.INSTANCE.init();
+                fail("reset with an open journal");
+            } catch (WeatherException expected) {
+            }
+        } finally {
+            WeatherService.INSTANCE.closeJournal();
+        }
+
+        // a restart: built in airports without weather, then the replay
+        WeatherService.INSTANCE.init();
+        WeatherService.INSTANCE.openJournal(journal, true, 60000);
+        try {
+            List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("JFK", "0").getEntity();
+            assertEquals(_dp, ais.get(0).getWind());
+            assertEquals(cloudCover, ais.get(0).getCloudCover());
+            assertEquals(_dp, ((List<AtmosphericInformation>) _query.weather("BOS", "0").getEntity()).get(0).getWind());
+            // deleted before the restart, its weather is gone
+            assertNull(((List<AtmosphericInformation>) _query.weather("EWR", "0").getEntity()).get(0).getWind());
+        } finally {
+            WeatherService.INSTANCE.closeJournal();
+        }
+    }
+
+    @Test
+    public void testJournalFailure() throws Exception {
+        Path journal = _tmp.newFolder("failing").toPath();
+        WeatherService.INSTANCE.openJournal(journal, true, 20);
+        try {
+            // the next segment can not be created, the journal fails at its next checkpoint
+            try (Stream<Path> files = Files.list(journal)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(journal);
+            int status = 200;
+            for (int i = 0; i < 500 && status == 200; i++) {
+                Thread.sleep(10);
+                status = _update.updateWeather("BOS", "wind", _gson.toJson(new DataPoint(1, 2, i, 3, 4))).getStatus();
+            }
+            // applied, but not logged: a server error rather than a bad request
+            assertEquals(500, status);
+            List<DataPointUpdate> updates = new ArrayList<>();
+            updates.add(new DataPointUpdate("JFK", "wind", _dp));
+            JsonArray statuses = new JsonParser().parse((String) _update.updateWeather(_gson.toJson(updates)).getEntity()).getAsJsonArray();
+            assertEquals(500, statuses.get(0).getAsJsonObject().get("status").getAsInt());
+            assertEquals(_dp, WeatherService.INSTANCE.getAtmosphericInformation(WeatherService.INSTANCE.getAirportDataIdx("JFK")).getWind());
+        } finally {
+            try {
+                WeatherService.INSTANCE.closeJournal();
+            } catch (IOException e) {
+                // the failure of the journal
+            }
+        }
+    }
+
+    @Test
+    public void testWeatherJsonFragments() throws Exception {
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        AtmosphericInformationList ais = (AtmosphericInformationList) _query.weather("JFK", "500").getEntity();
+        assertEquals(2, ais.size());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        new AtmosphericInformationListWriter().writeTo(ais, null, null, null, null, null, written);
+        assertEquals(new ObjectMapper().writeValueAsString(new ArrayList<AtmosphericInformation>(ais)), written.toString("UTF-8"));
+
+        // an unchanged airport reuses its fragment, an updated one is serialized again
+        AtmosphericInformationList again = (AtmosphericInformationList) _query.weather("BOS", "0").getEntity();
+        assertSame(((AtmosphericInformationList) _query.weather("BOS", "0").getEntity()).getJson(0), again.getJson(0));
+        _update.updateWeather("BOS", "wind", _gson.toJson(_dp));
+        AtmosphericInformationList updated = (AtmosphericInformationList) _query.weather("BOS", "0").getEntity();
+        assertNotSame(again.getJson(0), updated.getJson(0));
+    }
+
+    @Test
+    public void testRadiusCache() throws Exception {
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        assertEquals(1, ((List<AtmosphericInformation>) _query.weather("JFK", "100").getEntity()).size());
+        assertEquals(1, ((List<AtmosphericInformation>) _query.weather("JFK", "100").getEntity()).size());
+
+        // BOS lies outside the neighbourhood, EWR inside
+        _update.updateWeather("BOS", "wind", _gson.toJson(_dp));
+        assertEquals(1, ((List<AtmosphericInformation>) _query.weather("JFK", "100").getEntity()).size());
+        _update.updateWeather("EWR", "wind", _gson.toJson(_dp));
+        assertEquals(2, ((List<AtmosphericInformation>) _query.weather("JFK", "100").getEntity()).size());
+        _update.deleteAirport("EWR");
+        assertEquals(1, ((List<AtmosphericInformation>) _query.weather("JFK", "100").getEntity()).size());
+
+        JsonObject cache = new JsonParser().parse(_query.ping()).getAsJsonObject().get("radius_cache").getAsJsonObject();
+        assertEquals(2, cache.get("hits").getAsInt());
+        assertEquals(3, cache.get("misses").getAsInt());
+        assertEquals(2, cache.get("invalidations").getAsInt());
+        assertEquals(1, cache.get("entries").getAsInt());
+    }
+
+    @Test
+    public void testRadiusCacheRegistryRace() throws Exception {
+        WeatherService service = WeatherService.INSTANCE;
+        // a dense cluster with neighbour lists makes every delete patch many lists, a wide window for a racing query
+        List<AirportData> cluster = new ArrayList<AirportData>();
+        for (int i = 0; i < 1500; i++) {
+            cluster.add(new AirportData("C" + i, 40.60 + (i % 40) * 0.002, -73.82 + (i / 40) * 0.002));
+        }
+        service.getAirports().addAll(cluster);
+        service.getAirports().setNeighbourRadius(50);
+        int jfk = service.getAirportDataIdx("JFK");
+        for (int round = 0; round < 10; round++) {
+            service.addAirport("ZZA", 40.65, -73.77);
+            _update.updateWeather("ZZA", "wind", _gson.toJson(_dp));
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread reader = new Thread(() -> {
+                while (!stop.get()) {
+                    service.getAtmosphericInformationInRadius(jfk, 100);
+                }
+            });
+            reader.start();
+            Thread.sleep(5);
+            service.deleteAirport("ZZA");
+            stop.set(true);
+            reader.join();
+            // only ZZA had weather within the radius, a result cached while it was being deleted must not survive
+            assertEquals("round " + round, 0, service.getAtmosphericInformationInRadius(jfk, 100).size());
+        }
+    }
+
+    @Test
+    public void testEntityTag() throws Exception {
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        _update.updateWeather("EWR", "wind", _gson.toJson(_dp));
+        EntityTag tag = _query.weather("JFK", "100").getEntityTag();
+        assertEquals(tag, _query.weather("JFK", "100").getEntityTag());
+        assertNotEquals(tag, _query.weather("JFK", "0").getEntityTag());
+
+        // a new snapshot of any airport in the result changes the tag, one outside does not
+        _update.updateWeather("BOS", "wind", _gson.toJson(_dp));
+        assertEquals(tag, _query.weather("JFK", "100").getEntityTag());
+        _update.updateWeather("EWR", "wind", _gson.toJson(_dp));
+        assertNotEquals(tag, _query.weather("JFK", "100").getEntityTag());
+
+        // tags do not survive a registry rebuild, slot ids and versions start over
+        tag = _query.weather("JFK", "0").getEntityTag();
+        WeatherService.INSTANCE.init();
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        assertNotEquals(tag, _query.weather("JFK", "0").getEntityTag());
+    }
+
+    @Test
+    public void testWeatherStream() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        CountDownLatch release = new CountDownLatch(1);
+        WeatherSubscriptions.Sink sink = new WeatherSubscriptions.Sink() {
+            @Override
+            public void send(AirportSlot slot, AtmosphericInformation ai) throws IOException {
+                events.add(slot.getAirport().getIata() + ":" + ai.getWind().getMean());
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void keepAlive() {
+                events.add("keepalive");
+            }
+
+            @Override
+            public void closed() {
+                events.add("closed");
+            }
+        };
+        WeatherService service = WeatherService.INSTANCE;
+        WeatherSubscriptions.Subscription subscription = service.subscribe(service.getAirportDataIdx("JFK"), 100, sink);
+        assertEquals("keepalive", events.poll(5, TimeUnit.SECONDS));
+
+        // BOS lies outside the radius, EWR inside
+        _update.updateWeather("BOS", "wind", _gson.toJson(_dp));
+        _update.updateWeather("EWR", "wind", _gson.toJson(_dp));
+        assertEquals("EWR:" + _dp.getMean(), events.poll(5, TimeUnit.SECONDS));
+
+        // the sender is stuck on the first event, later snapshots of an airport replace each other
+        DataPoint last = null;
+        for (int mean = 1; mean <= 3; mean++) {
+            last = new DataPoint.Builder().withMean(mean).withMedian(mean).withCount(1).build();
+            _update.updateWeather("EWR", "wind", _gson.toJson(last));
+        }
+        release.countDown();
+        assertEquals("EWR:" + last.getMean(), events.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, service.getSubscriptions().getCoalesced());
+
+        // a late older snapshot is dropped, it does not follow the newer one already sent
+        AirportSlot ewr = service.getAirports().find("EWR");
+        long version = ewr.getAtmosphericInformation().getVersion();
+        DataPoint older = new DataPoint.Builder().withMean(7).withMedian(7).withCount(1).build();
+        DataPoint newer = new DataPoint.Builder().withMean(9).withMedian(9).withCount(1).build();
+        service.getSubscriptions().published(ewr, new AtmosphericInformation(null, older, null, null, null, null, 0, version - 1));
+        service.getSubscriptions().published(ewr, new AtmosphericInformation(null, newer, null, null, null, null, 0, version + 1));
+        assertEquals("EWR:" + newer.getMean(), events.poll(5, TimeUnit.SECONDS));
+
+        subscription.close();
+        assertEquals("closed", events.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, service.getSubscriptions().count());
+        assertEquals("data: {\"iata\":\"BOS\",\"atmosphericInformation\":{}}",
+                RestWeatherStreamEndpoint.event("BOS", "{}".getBytes(StandardCharsets.UTF_8)).split("\n")[1]);
+    }
+
+    @Test
+    public void testHistory() throws Exception {
+        // BOS has its wind from setUp
+        int samples = WeatherConstant.HISTORY_SAMPLES + 10;
+        for (int i = 1; i < samples; i++) {
+            _update.updateWeather("BOS", "wind", _gson.toJson(new DataPoint(1, 2.5, i + 0.25, -4.125, 10)));
+        }
+        _update.updateWeather("JFK", "temperature", _gson.toJson(_dp));
+
+        // only the latest samples are kept, oldest first
+        WeatherHistory.Window wind = (WeatherHistory.Window) _query.history("BOS", "wind", null, null).getEntity();
+        assertEquals(WeatherConstant.HISTORY_SAMPLES, wind.size());
+        assertEquals(samples - WeatherConstant.HISTORY_SAMPLES + 0.25, wind.mean(0), 0);
+        assertEquals(samples - 1 + 0.25, wind.mean(wind.size() - 1), 0);
+        assertEquals(0, ((WeatherHistory.Window) _query.history("BOS", "temperature", "", "").getEntity()).size());
+        assertEquals(1, ((WeatherHistory.Window) _query.history("JFK", "TEMPERATURE", null, null).getEntity()).size());
+
+        long last = wind.time(wind.size() - 1);
+        WeatherHistory.Window recent = (WeatherHistory.Window) _query.history("BOS", "wind", String.valueOf(last), null).getEntity();
+        assertEquals(last, recent.time(0));
+        assertEquals(0, ((WeatherHistory.Window) _query.history("BOS", "wind", null, String.valueOf(wind.time(0))).getEntity()).size());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        new WeatherHistoryWriter().writeTo(wind, null, null, null, null, null, written);
+        JsonArray json = new JsonParser().parse(written.toString("UTF-8")).getAsJsonArray();
+        assertEquals(wind.size(), json.size());
+        JsonObject newest = json.get(json.size() - 1).getAsJsonObject();
+        assertEquals(last, newest.get("time").getAsLong());
+        assertEquals("{\"time\":" + last + ",\"first\":1.0,\"second\":2.5,\"mean\":" + (samples - 1 + 0.25)
+                + ",\"third\":-4.125,\"count\":10.0}", newest.toString());
+
+        assertEquals(404, _query.history("XXX", "wind", null, null).getStatus());
+        assertEquals(400, _query.history("BOS", "snow", null, null).getStatus());
+        assertEquals(400, _query.history("BOS", "wind", "yesterday", null).getStatus());
+
+        WeatherService.INSTANCE.deleteAirport("BOS");
+        WeatherService.INSTANCE.addAirport("BOS", 42.364347, -71.005181);
+        assertEquals(0, ((WeatherHistory.Window) _query.history("BOS", "wind", null, null).getEntity()).size());
+    }
+
+    @Test
+    public void testRollups() throws Exception {
+        // reports weigh their count, or one without a count
+        WeatherRollups rollups = new WeatherRollups(1);
+        long hour = WeatherRollups.Resolution.HOUR.getMillis();
+        long minute = WeatherRollups.Resolution.MINUTE.getMillis();
+        AtmosphericInformation ai = new AtmosphericInformation();
+        AtmosphericInformation next = ai.withWind(new DataPoint(10, 20, 22, 30, 10), 10 * hour + 5);
+        rollups.published(0, ai, next);
+        ai = next;
+        next = ai.withWind(new DataPoint(2, 4, 6, 8, 30), 10 * hour + minute);
+        rollups.published(0, ai, next);
+        ai = next;
+        next = ai.withWind(new DataPoint(0, 0, 50, 0, 0), 11 * hour);
+        rollups.published(0, ai, next);
+
+        WeatherRollups.Buckets hours = rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.HOUR, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, hours.size());
+        assertEquals(10 * hour, hours.start(0));
+        assertEquals(2, hours.reports(0));
+        assertEquals(40, hours.count(0), 0);
+        assertEquals((22 * 10 + 6 * 30) / 40.0, hours.mean(0), 1e-9);
+        assertEquals((10 * 10 + 2 * 30) / 40.0, hours.first(0), 1e-9);
+        assertEquals((30 * 10 + 8 * 30) / 40.0, hours.third(0), 1e-9);
+        assertEquals(6, hours.min(0), 0);
+        assertEquals(22, hours.max(0), 0);
+        assertEquals(1, hours.count(1), 0);
+        assertEquals(50, hours.mean(1), 0);
+        assertEquals(3, rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.MINUTE, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(1, rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.DAY, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(1, rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.HOUR, 11 * hour, Long.MAX_VALUE).size());
+        assertEquals(0, rollups.buckets(0, DataPointType.HUMIDTY, WeatherRollups.Resolution.HOUR, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+        // a full series drops its oldest buckets, reports older than all of them only reach the coarser ones
+        for (int i = 0; i < WeatherConstant.ROLLUP_MINUTES + 5; i++) {
+            ai = next;
+            next = ai.withWind(new DataPoint(10, 20, 22, 30, 10), 12 * hour + i * minute);
+            rollups.published(0, ai, next);
+        }
+        ai = next;
+        next = ai.withWind(new DataPoint(10, 20, 22, 30, 10), 12 * hour);
+        rollups.published(0, ai, next);
+        WeatherRollups.Buckets minutes = rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.MINUTE, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(WeatherConstant.ROLLUP_MINUTES, minutes.size());
+        assertEquals(12 * hour + 5 * minute, minutes.start(0));
+        assertEquals(1, minutes.reports(0));
+        assertEquals(13 * hour + 4 * minute, minutes.start(minutes.size() - 1));
+        assertEquals(61, rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.HOUR, 12 * hour, 13 * hour).reports(0));
+
+        // a late report lands in its own bucket, in order
+        ai = next;
+        next = ai.withWind(new DataPoint(10, 20, 22, 30, 10), 9 * hour);
+        rollups.published(0, ai, next);
+        hours = rollups.buckets(0, DataPointType.WIND, WeatherRollups.Resolution.HOUR, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(5, hours.size());
+        assertEquals(9 * hour, hours.start(0));
+
+        // the endpoint serves the rollups of the service, BOS has its wind from setUp
+        _update.updateWeather("BOS", "wind", _gson.toJson(new DataPoint(2, 4, 6, 8, 30)));
+        WeatherRollups.Buckets days = (WeatherRollups.Buckets) _query.rollup("BOS", "wind", "day", null, null).getEntity();
+        long reports = 0;
+        for (int i = 0; i < days.size(); i++) {
+            reports += days.reports(i);
+        }
+        assertEquals(2, reports);
+        assertEquals(0, ((WeatherRollups.Buckets) _query.rollup("BOS", "temperature", "MINUTE", "", "").getEntity()).size());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        new WeatherRollupWriter().writeTo(hours, null, null, null, null, null, written);
+        JsonArray json = new JsonParser().parse(written.toString("UTF-8")).getAsJsonArray();
+        assertEquals(hours.size(), json.size());
+        assertEquals("{\"start\":" + 10 * hour + ",\"reports\":2,\"count\":40.0,\"mean\":10.0,\"min\":6.0,\"max\":22.0"
+                + ",\"first\":4.0,\"second\":8.0,\"third\":13.5}", json.get(1).getAsJsonObject().toString());
+
+        assertEquals(404, _query.rollup("XXX", "wind", "hour", null, null).getStatus());
+        assertEquals(400, _query.rollup("BOS", "snow", "hour", null, null).getStatus());
+        assertEquals(400, _query.rollup("BOS", "wind", "week", null, null).getStatus());
+        assertEquals(400, _query.rollup("BOS", "wind", "hour", "yesterday", null).getStatus());
+
+        WeatherService.INSTANCE.deleteAirport("BOS");
+        WeatherService.INSTANCE.addAirport("BOS", 42.364347, -71.005181);
+        assertEquals(0, ((WeatherRollups.Buckets) _query.rollup("BOS", "wind", "day", null, null).getEntity()).size());
+    }
+
+    @Test
+    public void testExecutorOverload() throws Exception {
+        BlockingQueue<Response> resumed = new LinkedBlockingQueue<>();
+        AsyncResponse async = (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(),
+                new Class<?>[] { AsyncResponse.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("resume")) {
+                        return resumed.add((Response) args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        try {
+            // a failing handler is answered with 500
+            EndpointExecutor.COLLECT.configure(1, 0);
+            EndpointExecutor.COLLECT.submit(async, () -> {
+                throw new IllegalStateException("handler failed");
+            });
+            assertEquals(500, resumed.poll(5, TimeUnit.SECONDS).getStatus());
+            // so is one that throws an error, which still ends its thread
+            EndpointExecutor.COLLECT.configure(1, 0);
+            EndpointExecutor.COLLECT.submit(async, () -> {
+                throw new AssertionError("handler broken");
+            });
+            assertEquals(500, resumed.poll(5, TimeUnit.SECONDS).getStatus());
+
+            // the only thread is busy and no request may wait, the next one is answered with 503 right away
+            EndpointExecutor.COLLECT.configure(1, 0);
+            CountDownLatch busy = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            EndpointExecutor.COLLECT.submit(async, () -> {
+                busy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Response.ok().build();
+            });
+            busy.await();
+            long rejected = EndpointExecutor.COLLECT.getRejected();
+            EndpointExecutor.COLLECT.submit(async, () -> Response.ok().build());
+            assertEquals(503, resumed.poll(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(rejected + 1, EndpointExecutor.COLLECT.getRejected());
+            release.countDown();
+            assertEquals(200, resumed.poll(5, TimeUnit.SECONDS).getStatus());
+        } finally {
+            EndpointExecutor.COLLECT.configure(Runtime.getRuntime().availableProcessors(), 10000);
+        }
+    }
+
+    @Test
+    public void testPingFrequencies() throws Exception {
+        _query.weather("BOS", "0");
+        _query.weather("JFK", "25");
+        _query.weather("JFK", "25");
+
+        JsonObject pingResult = new JsonParser().parse(_query.ping()).getAsJsonObject();
+        JsonObject iataFreq = pingResult.get("iata_freq").getAsJsonObject();
+        // setUp queried BOS once more
+        assertEquals(0.5, iataFreq.get("BOS").getAsDouble(), 1e-9);
+        assertEquals(0.5, iataFreq.get("JFK").getAsDouble(), 1e-9);
+        // never queried, left out
+        assertNull(iataFreq.get("EWR"));
+
+        // a deleted airport is left out too
+        _update.deleteAirport("JFK");
+        iataFreq = new JsonParser().parse(_query.ping()).getAsJsonObject().get("iata_freq").getAsJsonObject();
+        assertEquals(1, iataFreq.entrySet().size());
+
+        JsonArray radiusFreq = pingResult.get("radius_freq").getAsJsonArray();
+        assertEquals(2, radiusFreq.get(0).getAsInt());
+        assertEquals(2, radiusFreq.get(2).getAsInt());
     }
 
     @Test
     public void testGet() throws Exception {
         List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("BOS", "0").getEntity();
         assertEquals(ais.get(0).getWind(), _dp);
+
+        // the id of an airport that was deleted meanwhile
+        assertNull(WeatherService.INSTANCE.getAirports().get(-1));
+        WeatherService.INSTANCE.updateRequestFrequency(-1, 0);
+        assertNull(WeatherService.INSTANCE.getAtmosphericInformation(-1));
+        assertEquals(404, _query.weather("XXX", "0").getStatus());
     }
 
     @Test
@@ -58,6 +535,70 @@ public class WeatherEndpointTest {
         assertEquals(3, ais.size());
     }
 
+    @Test
+    public void testConcurrentUpdatesKeepAllTypes() throws Exception {
+        String[] types = {"wind", "temperature", "humidty", "pressure", "cloudcover", "precipitation"};
+        DataPoint dp = new DataPoint.Builder()
+                .withCount(10).withFirst(10).withMedian(20).withLast(30).withMean(22).build();
+        ExecutorService executor = Executors.newFixedThreadPool(types.length);
+        try {
+            List<Future<?>> updates = new ArrayList<>();
+            for (String type : types) {
+                updates.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        _update.updateWeather("JFK", type, _gson.toJson(dp));
+                    }
+                }));
+            }
+            for (Future<?> update : updates) {
+                update.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // pressure rejects the data point as out of range, every other type must have kept its update
+        AtmosphericInformation ai = ((List<AtmosphericInformation>) _query.weather("JFK", "0").getEntity()).get(0);
+        assertEquals(dp, ai.getWind());
+        assertEquals(dp, ai.getTemperature());
+        assertEquals(dp, ai.getHumidity());
+        assertEquals(dp, ai.getCloudCover());
+        assertEquals(dp, ai.getPrecipitation());
+        assertNull(ai.getPressure());
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        DataPoint cloudCoverDp = new DataPoint.Builder()
+                .withCount(4).withFirst(10).withMedian(60).withLast(100).withMean(50).build();
+        List<DataPointUpdate> updates = new ArrayList<>();
+        updates.add(new DataPointUpdate("JFK", "wind", _dp));
+        updates.add(new DataPointUpdate("JFK", "cloudcover", cloudCoverDp));
+        updates.add(new DataPointUpdate("JFK", "sunshine", _dp));
+        updates.add(new DataPointUpdate("EWR", "wind", _dp));
+        updates.add(new DataPointUpdate("ZZZ", "wind", _dp));
+
+        Response response = _update.updateWeather(_gson.toJson(updates));
+        assertEquals(200, response.getStatus());
+        JsonArray statuses = new JsonParser().parse((String) response.getEntity()).getAsJsonArray();
+        assertEquals(5, statuses.size());
+        assertEquals(200, statuses.get(0).getAsJsonObject().get("status").getAsInt());
+        assertEquals(200, statuses.get(1).getAsJsonObject().get("status").getAsInt());
+        assertEquals(415, statuses.get(2).getAsJsonObject().get("status").getAsInt());
+        assertEquals(200, statuses.get(3).getAsJsonObject().get("status").getAsInt());
+        // an unknown airport fails like a single update
+        assertEquals(415, statuses.get(4).getAsJsonObject().get("status").getAsInt());
+        assertEquals("unknown airport ZZZ for data type WIND", statuses.get(4).getAsJsonObject().get("message").getAsString());
+
+        AtmosphericInformation jfk = ((List<AtmosphericInformation>) _query.weather("JFK", "0").getEntity()).get(0);
+        assertEquals(_dp, jfk.getWind());
+        assertEquals(cloudCoverDp, jfk.getCloudCover());
+        AtmosphericInformation ewr = ((List<AtmosphericInformation>) _query.weather("EWR", "0").getEntity()).get(0);
+        assertEquals(_dp, ewr.getWind());
+
+        assertEquals(400, _update.updateWeather("not json").getStatus());
+    }
+
     @Test
     public void testUpdate() throws Exception {
 
@@ -77,6 +618,10 @@ public class WeatherEndpointTest {
         List<AtmosphericInformation> ais = (List<AtmosphericInformation>) _query.weather("BOS", "0").getEntity();
         assertEquals(ais.get(0).getWind(), windDp);
         assertEquals(ais.get(0).getCloudCover(), cloudCoverDp);
+
+        // an update for an unknown airport fails instead of being dropped
+        assertEquals(Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(),
+                _update.updateWeather("ZZZ", "wind", _gson.toJson(windDp)).getStatus());
     }
 
 }
\ No newline at end of file